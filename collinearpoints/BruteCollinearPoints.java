@@ -1,8 +1,6 @@
 import java.util.Arrays;
-import java.util.Comparator;
 
 import edu.princeton.cs.algs4.StdOut;
-import edu.princeton.cs.algs4.StdRandom;
 
 public class BruteCollinearPoints {
     private int count = 0;
@@ -54,18 +52,23 @@ public class BruteCollinearPoints {
 
     private void findLineSegments(Point[] points) {
         int length = points.length;
+        double[] slopes = new double[length];
         for (int i = 0; i < length; i++) {
+            // slope from points[i] to each later point, computed once per pair
+            for (int j = i + 1; j < length; j++) {
+                slopes[j] = points[i].slopeTo(points[j]);
+            }
+
             for (int j = i + 1; j < length; j++) {
                 for (int k = j + 1; k < length; k++) {
+                    if (slopes[j] != slopes[k]) {
+                        continue; // no fourth point can make i, j and k collinear
+                    }
                     for (int m = k + 1; m < length; m++) {
-                        Comparator<Point> comparator = points[i].slopeOrder();
-                        if (comparator.compare(points[j], points[k]) == 0
-                                && comparator.compare(points[k], points[m]) == 0) {
+                        if (slopes[k] == slopes[m]) {
                             if (count + 1 == lineSegments.length) {
                                 lineSegments = resize(lineSegments, count, lineSegments.length * 2);
                             }
-                            // StdOut.println(points[i] + " " + points[j] + " " + points[k] + " " +
-                            // points[m]);
                             lineSegments[count++] = new LineSegment(points[i], points[m]);
                         }
                     }
@@ -117,55 +120,32 @@ public class BruteCollinearPoints {
     public static void main(String[] args) {
         // Base case four collinear points
         StdOut.println("Base case");
-        BruteCollinearPoints brute = new BruteCollinearPoints(getCollinearPoints(4));
+        BruteCollinearPoints brute = new BruteCollinearPoints(CollinearDatasets.collinear(4));
         assert brute.numberOfSegments() == 1;
         assert brute.segments()[0].toString().equals("(0, 0) -> (3, 3)");
 
         // Add one more collinear point
         StdOut.println("Five collinear case");
-        brute = new BruteCollinearPoints(getCollinearPoints(5));
+        brute = new BruteCollinearPoints(CollinearDatasets.collinear(5));
         assert brute.numberOfSegments() == 5;
 
+        // Every four of six collinear points
+        StdOut.println("Six collinear case");
+        brute = new BruteCollinearPoints(CollinearDatasets.collinear(6));
+        assert brute.numberOfSegments() == 15;
+        assert brute.segments()[0].toString().equals("(0, 0) -> (3, 3)");
+        assert brute.segments()[14].toString().equals("(2, 2) -> (5, 5)");
+
         StdOut.println("20 Random Points with max 20");
-        brute = new BruteCollinearPoints(getRandomPoints(20, 20));
+        brute = new BruteCollinearPoints(CollinearDatasets.random(20, 20));
         assert brute.numberOfSegments() >= 0;
 
         StdOut.println("40 Random Points with max 20");
-        brute = new BruteCollinearPoints(getRandomPoints(40, 20));
+        brute = new BruteCollinearPoints(CollinearDatasets.random(40, 20));
         assert brute.numberOfSegments() >= 0;
 
         StdOut.println("80 Random Points with max 20");
-        brute = new BruteCollinearPoints(getRandomPoints(80, 20));
+        brute = new BruteCollinearPoints(CollinearDatasets.random(80, 20));
         assert brute.numberOfSegments() >= 0;
     }
-
-    private static Point[] getCollinearPoints(int count) {
-        Point[] points = new Point[count];
-        for (int i = 0; i < count; i++) {
-            points[i] = new Point(i, i);
-        }
-        return points;
-    }
-
-    private static Point[] getRandomPoints(int count, int max) {
-        Point[] points = new Point[count];
-        for (int i = 0; i < count; i++) {
-            boolean contains;
-            Point candidate;
-            do {
-                // create candidate point, see if point is already in points
-                contains = false;
-                candidate = new Point(StdRandom.uniformInt(max), StdRandom.uniformInt(max));
-                for (int j = 0; j < i; j++) {
-                    if (points[j].compareTo(candidate) == 0) {
-                        contains = true;
-                        break;
-                    }
-                }
-            } while (contains);
-
-            points[i] = candidate;
-        }
-        return points;
-    }
 }
\ No newline at end of file
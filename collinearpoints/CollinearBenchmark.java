@@ -0,0 +1,169 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ * Times the collinear engines on grid, random and adversarial points for
+ * doubling numbers of points, reporting throughput, bytes allocated and peak
+ * heap use. An engine is dropped for the larger sizes of a dataset once a run
+ * takes longer than the time budget, so the quadratic and quartic engines do
+ * not stall the larger runs of the faster ones.
+ *
+ * Usage: java CollinearBenchmark [minPoints] [maxPoints] [budgetSeconds]
+ */
+public class CollinearBenchmark {
+    private static final int ADVERSARIAL_LINES = 8;
+
+    // BruteCollinearPoints reports every four points of a line, so its output
+    // outgrows the heap long before its time does on inputs with long lines
+    private enum Dataset {
+        GRID(1000) {
+            Point[] create(int n) {
+                return CollinearDatasets.grid(n);
+            }
+        },
+        RANDOM(2000) {
+            Point[] create(int n) {
+                // about four grid cells per point, which leaves some collinear points
+                return CollinearDatasets.random(n, 2 * (int) Math.sqrt(n) + 4);
+            }
+        },
+        ADVERSARIAL(500) {
+            Point[] create(int n) {
+                return CollinearDatasets.adversarial(n, ADVERSARIAL_LINES);
+            }
+        };
+
+        private final int bruteMaxPoints;
+
+        Dataset(int bruteMaxPoints) {
+            this.bruteMaxPoints = bruteMaxPoints;
+        }
+
+        abstract Point[] create(int n);
+    }
+
+    private enum Engine {
+        BRUTE {
+            int run(Point[] points) {
+                return new BruteCollinearPoints(points).numberOfSegments();
+            }
+        },
+        FAST {
+            int run(Point[] points) {
+                return new FastCollinearPoints(points).numberOfSegments();
+            }
+        },
+        FAST_PARALLEL {
+            int run(Point[] points) {
+                return new FastCollinearPoints(points, true).numberOfSegments();
+            }
+        },
+        FAST_COMPACT {
+            int run(Point[] points) {
+                return new FastCollinearPoints(new CompactPoints(points)).numberOfSegments();
+            }
+        },
+        HASH {
+            int run(Point[] points) {
+                return new HashCollinearPoints(points).numberOfSegments();
+            }
+        },
+        INCREMENTAL {
+            int run(Point[] points) {
+                IncrementalCollinearPoints incremental = new IncrementalCollinearPoints();
+                for (Point p : points) {
+                    incremental.add(p);
+                }
+                return incremental.numberOfSegments();
+            }
+        };
+
+        // runs the engine, returning the number of segments
+        abstract int run(Point[] points);
+    }
+
+    private CollinearBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int minPoints = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int maxPoints = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        double budget = args.length > 2 ? Double.parseDouble(args[2]) : 10.0;
+
+        StdOut.printf("%-12s %9s %-14s %10s %14s %10s %12s %10s%n",
+                "dataset", "n", "engine", "seconds", "points/s", "segments", "alloc MB", "peak MB");
+        for (Dataset dataset : Dataset.values()) {
+            boolean[] overBudget = new boolean[Engine.values().length];
+            for (int n = minPoints; n <= maxPoints; n *= 2) {
+                Point[] points = dataset.create(n);
+                for (Engine engine : Engine.values()) {
+                    if (overBudget[engine.ordinal()]
+                            || (engine == Engine.BRUTE && n > dataset.bruteMaxPoints)) {
+                        continue;
+                    }
+                    Measurement measurement = measure(engine, points);
+                    StdOut.printf("%-12s %9d %-14s %10.3f %14.0f %10d %12.1f %10.1f%n",
+                            dataset, n, engine, measurement.seconds, n / measurement.seconds,
+                            measurement.segments, toMegabytes(measurement.allocatedBytes),
+                            toMegabytes(measurement.peakBytes));
+                    if (measurement.seconds > budget) {
+                        overBudget[engine.ordinal()] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Measurement {
+        private int segments;
+        private double seconds;
+        private long allocatedBytes;
+        private long peakBytes;
+    }
+
+    private static Measurement measure(Engine engine, Point[] points) {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long allocatedBefore = allocatedBytes();
+
+        Measurement measurement = new Measurement();
+        Stopwatch stopwatch = new Stopwatch();
+        measurement.segments = engine.run(points);
+        measurement.seconds = stopwatch.elapsedTime();
+
+        measurement.allocatedBytes = allocatedBytes() - allocatedBefore;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                measurement.peakBytes += pool.getPeakUsage().getUsed();
+            }
+        }
+        return measurement;
+    }
+
+    // bytes allocated so far by all live threads, which includes the fork-join
+    // workers of the parallel engine; -1 when the JVM does not track allocation
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        long total = 0;
+        for (long bytes : allocation.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static double toMegabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,165 @@
+import edu.princeton.cs.algs4.StdRandom;
+
+/**
+ * Generators of distinct points for testing and benchmarking the collinear
+ * engines. Duplicates are rejected with a hash set of packed points, so each
+ * generator takes expected time linear in the number of points.
+ */
+public class CollinearDatasets {
+
+    private CollinearDatasets() {
+    }
+
+    /**
+     * Points on the diagonal: (0, 0), (1, 1), ..., (count - 1, count - 1).
+     *
+     * @param count number of points.
+     * @return count collinear points.
+     */
+    public static Point[] collinear(int count) {
+        Point[] points = new Point[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = new Point(i, i);
+        }
+        return points;
+    }
+
+    /**
+     * Distinct points chosen uniformly at random from the max-by-max grid
+     * with coordinates from 0 to max - 1. Takes expected linear time while the
+     * grid has at least twice as many points as are chosen.
+     *
+     * @param count number of points.
+     * @param max   number of coordinate values along each axis.
+     * @return count distinct random points.
+     * @throws IllegalArgumentException when the grid has fewer than count points.
+     */
+    public static Point[] random(int count, int max) {
+        if ((long) max * max < count) {
+            throw new IllegalArgumentException("The grid must have at least count points.");
+        }
+
+        Point[] points = new Point[count];
+        PointSet seen = new PointSet(count);
+        int i = 0;
+        while (i < count) {
+            int x = StdRandom.uniformInt(max);
+            int y = StdRandom.uniformInt(max);
+            if (seen.add(x, y)) {
+                points[i++] = new Point(x, y);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * The first count points of the smallest square grid that holds them, in
+     * random order. Grids have many lines of four or more points.
+     *
+     * @param count number of points.
+     * @return count distinct grid points.
+     */
+    public static Point[] grid(int count) {
+        int side = (int) Math.ceil(Math.sqrt(count));
+        Point[] points = new Point[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = new Point(i % side, i / side);
+        }
+        StdRandom.shuffle(points);
+        return points;
+    }
+
+    /**
+     * Points spread evenly over a few long lines, in random order. Every origin
+     * has long slope runs, which is the worst case for the engines' output and
+     * for sorts that stop early on already ordered input.
+     *
+     * @param count number of points.
+     * @param lines number of lines.
+     * @return count distinct points on the given number of lines.
+     * @throws IllegalArgumentException when lines is not positive.
+     */
+    public static Point[] adversarial(int count, int lines) {
+        if (lines < 1) {
+            throw new IllegalArgumentException("There must be at least one line.");
+        }
+
+        Point[] points = new Point[count];
+        PointSet seen = new PointSet(count);
+        int i = 0;
+        for (int line = 0; line < lines; line++) {
+            // line k starts at (k, 0) and rises k + 1 for every step right
+            int perLine = count / lines + (line < count % lines ? 1 : 0);
+            for (int step = 0; perLine > 0; step++) {
+                int x = line + step;
+                int y = step * (line + 1);
+                if (seen.add(x, y)) { // skip points where lines cross
+                    points[i++] = new Point(x, y);
+                    perLine--;
+                }
+            }
+        }
+        StdRandom.shuffle(points);
+        return points;
+    }
+
+    /**
+     * Set of packed points using open addressing with linear probing.
+     */
+    private static class PointSet {
+        private final long[] keys;
+        private final boolean[] used;
+
+        PointSet(int maxSize) {
+            int capacity = 16;
+            while (capacity < 2 * maxSize) {
+                capacity *= 2;
+            }
+            keys = new long[capacity];
+            used = new boolean[capacity];
+        }
+
+        // adds the point, returning false if it was already in the set
+        boolean add(int x, int y) {
+            long key = CompactPoints.pack(x, y);
+            long h = key * 0x9E3779B97F4A7C15L;
+            int mask = keys.length - 1;
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            return true;
+        }
+    }
+
+    // unit testing of the methods
+    public static void main(String[] args) {
+        Point[] points = collinear(5);
+        assert points[4].toString().equals("(4, 4)");
+
+        // every point of a full grid is found without repeats
+        points = random(400, 20);
+        assert new CompactPoints(points).size() == 400;
+
+        points = grid(10);
+        assert new CompactPoints(points).size() == 10;
+        assert new FastCollinearPoints(grid(16)).numberOfSegments() == 10;
+
+        points = adversarial(1000, 5);
+        assert new CompactPoints(points).size() == 1000;
+        assert new FastCollinearPoints(points).numberOfSegments() >= 5;
+
+        boolean thrown = false;
+        try {
+            random(5, 2);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown : "A grid that is too small should not be allowed.";
+    }
+}
@@ -0,0 +1,189 @@
+import java.util.Arrays;
+
+/**
+ * An immutable set of distinct points stored as one packed long per point
+ * instead of one Point object per point. The packed values are sorted, which
+ * puts the points in the order of Point.compareTo(): by y-coordinate, breaking
+ * ties by x-coordinate. Point objects are only created when asked for.
+ */
+public class CompactPoints {
+    private final long[] keys; // packed points in ascending order, see pack()
+
+    /**
+     * Creates a compact copy of the given points.
+     *
+     * @param points the points to copy.
+     * @throws IllegalArgumentException when points is null, any point is null, or
+     *                                  any two points are equal.
+     */
+    public CompactPoints(Point[] points) {
+        if (points == null) {
+            throw new IllegalArgumentException("Points must not be null.");
+        }
+
+        keys = new long[points.length];
+        for (int i = 0; i < points.length; i++) {
+            if (points[i] == null) {
+                throw new IllegalArgumentException("No point may be null.");
+            }
+            keys[i] = pack(points[i].x(), points[i].y());
+        }
+        sortAndValidate();
+    }
+
+    /**
+     * Creates a compact set of points from their coordinates, where (xs[i], ys[i])
+     * is the i-th point.
+     *
+     * @param xs the x-coordinates of the points.
+     * @param ys the y-coordinates of the points.
+     * @throws IllegalArgumentException when xs or ys is null, they differ in
+     *                                  length, or any two points are equal.
+     */
+    public CompactPoints(int[] xs, int[] ys) {
+        if (xs == null || ys == null) {
+            throw new IllegalArgumentException("Coordinates must not be null.");
+        }
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("There must be as many x-coordinates as y-coordinates.");
+        }
+
+        keys = new long[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            keys[i] = pack(xs[i], ys[i]);
+        }
+        sortAndValidate();
+    }
+
+    private void sortAndValidate() {
+        Arrays.sort(keys);
+        for (int i = 0; i + 1 < keys.length; i++) {
+            if (keys[i] == keys[i + 1]) {
+                throw new IllegalArgumentException("No two points may be the same.");
+            }
+        }
+    }
+
+    /**
+     * Number of points.
+     *
+     * @return number of points.
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * The x-coordinate of the i-th smallest point.
+     *
+     * @param i index between 0 and size() - 1.
+     * @return the x-coordinate of the i-th smallest point.
+     */
+    public int x(int i) {
+        return unpackX(keys[i]);
+    }
+
+    /**
+     * The y-coordinate of the i-th smallest point.
+     *
+     * @param i index between 0 and size() - 1.
+     * @return the y-coordinate of the i-th smallest point.
+     */
+    public int y(int i) {
+        return unpackY(keys[i]);
+    }
+
+    /**
+     * Creates a Point for the i-th smallest point.
+     *
+     * @param i index between 0 and size() - 1.
+     * @return a new Point equal to the i-th smallest point.
+     */
+    public Point point(int i) {
+        return unpack(keys[i]);
+    }
+
+    /**
+     * The slope from the i-th to the j-th smallest point, defined the same way
+     * as Point.slopeTo().
+     *
+     * @param i index of the first point.
+     * @param j index of the second point.
+     * @return the slope between the two points.
+     */
+    public double slope(int i, int j) {
+        double yDelta = (double) y(j) - y(i);
+        double xDelta = (double) x(j) - x(i);
+
+        if (yDelta == 0 && xDelta == 0) {
+            // the same point
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (yDelta == 0) {
+            // horizontal line
+            return 0.0;
+        }
+        if (xDelta == 0) {
+            // vertical line
+            return Double.POSITIVE_INFINITY;
+        }
+
+        return yDelta / xDelta;
+    }
+
+    // Packs a point into a long whose natural order is the order of
+    // Point.compareTo(): by y-coordinate, breaking ties by x-coordinate.
+    static long pack(int x, int y) {
+        return ((long) y << 32) + ((long) x - Integer.MIN_VALUE);
+    }
+
+    static int unpackX(long key) {
+        return (int) ((key & 0xFFFFFFFFL) + Integer.MIN_VALUE);
+    }
+
+    static int unpackY(long key) {
+        return (int) (key >> 32);
+    }
+
+    static Point unpack(long key) {
+        return new Point(unpackX(key), unpackY(key));
+    }
+
+    // unit testing of the methods
+    public static void main(String[] args) {
+        // packing keeps the order of Point.compareTo()
+        assert pack(5, -1) < pack(-5, 0);
+        assert pack(-5, 0) < pack(5, 0);
+        assert unpackX(pack(Integer.MIN_VALUE, Integer.MAX_VALUE)) == Integer.MIN_VALUE;
+        assert unpackY(pack(Integer.MIN_VALUE, Integer.MAX_VALUE)) == Integer.MAX_VALUE;
+        assert unpackX(pack(Integer.MAX_VALUE, Integer.MIN_VALUE)) == Integer.MAX_VALUE;
+        assert unpackY(pack(Integer.MAX_VALUE, Integer.MIN_VALUE)) == Integer.MIN_VALUE;
+
+        Point[] points = { new Point(3, 1), new Point(1, 2), new Point(2, 1), new Point(-1, 0) };
+        CompactPoints compact = new CompactPoints(points);
+        assert compact.size() == 4;
+        assert compact.point(0).toString().equals("(-1, 0)");
+        assert compact.point(1).toString().equals("(2, 1)");
+        assert compact.point(2).toString().equals("(3, 1)");
+        assert compact.point(3).toString().equals("(1, 2)");
+        assert compact.x(3) == 1 && compact.y(3) == 2;
+
+        // slopes match Point.slopeTo()
+        for (int i = 0; i < compact.size(); i++) {
+            for (int j = 0; j < compact.size(); j++) {
+                assert compact.slope(i, j) == compact.point(i).slopeTo(compact.point(j));
+            }
+        }
+
+        compact = new CompactPoints(new int[] { 0, 1 }, new int[] { 1, 0 });
+        assert compact.point(0).toString().equals("(1, 0)");
+
+        boolean thrown = false;
+        try {
+            new CompactPoints(new int[] { 1, 1 }, new int[] { 2, 2 });
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown : "Duplicate points should not be allowed.";
+    }
+}
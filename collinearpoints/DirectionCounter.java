@@ -0,0 +1,255 @@
+/**
+ * Counts the points seen from an origin point by their direction. Directions
+ * are normalized to (dx / g, dy / g), where g = gcd(|dx|, |dy|), and pointed
+ * into the upper half plane, so every point on a line through the origin has
+ * the same key no matter which side of the origin it is on.
+ *
+ * The table uses open addressing with linear probing over primitive arrays, so
+ * adding a point does not allocate. Along with the count, each direction keeps
+ * the smallest and largest value added for it, which the callers use to find
+ * the endpoints of a line.
+ */
+class DirectionCounter {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] dxs;
+    private long[] dys;
+    private int[] counts; // zero marks an empty slot
+    private long[] mins;
+    private long[] maxs;
+
+    private int[] used; // slots in use, in the order they were first used
+    private int usedCount;
+
+    /**
+     * Creates an empty counter sized for the given number of directions. The
+     * counter grows if more directions are added.
+     *
+     * @param expectedDirections the number of directions expected between clears.
+     */
+    DirectionCounter(int expectedDirections) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * expectedDirections) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        dxs = new long[capacity];
+        dys = new long[capacity];
+        counts = new int[capacity];
+        mins = new long[capacity];
+        maxs = new long[capacity];
+        used = new int[capacity / 2 + 1];
+        usedCount = 0;
+    }
+
+    /**
+     * Removes all directions. Only the slots in use are reset, so clearing costs
+     * the number of directions rather than the capacity.
+     */
+    void clear() {
+        for (int i = 0; i < usedCount; i++) {
+            counts[used[i]] = 0;
+        }
+        usedCount = 0;
+    }
+
+    /**
+     * Counts a point in the direction (dx, dy) from the origin.
+     *
+     * @param dx    the x-coordinate of the point less the origin's.
+     * @param dy    the y-coordinate of the point less the origin's.
+     * @param value the value to keep the minimum and maximum of.
+     * @return the slot of the direction.
+     * @throws IllegalArgumentException when dx and dy are both zero.
+     */
+    int add(long dx, long dy, long value) {
+        if (dx == 0 && dy == 0) {
+            throw new IllegalArgumentException("A point has no direction to itself.");
+        }
+
+        long g = gcd(Math.abs(dx), Math.abs(dy));
+        dx /= g;
+        dy /= g;
+        if (dy < 0 || (dy == 0 && dx < 0)) {
+            dx = -dx;
+            dy = -dy;
+        }
+
+        if (2 * (usedCount + 1) > counts.length) {
+            grow();
+        }
+
+        int mask = counts.length - 1;
+        int slot = hash(dx, dy) & mask;
+        while (counts[slot] != 0) {
+            if (dxs[slot] == dx && dys[slot] == dy) {
+                counts[slot]++;
+                mins[slot] = Math.min(mins[slot], value);
+                maxs[slot] = Math.max(maxs[slot], value);
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        dxs[slot] = dx;
+        dys[slot] = dy;
+        counts[slot] = 1;
+        mins[slot] = value;
+        maxs[slot] = value;
+        used[usedCount++] = slot;
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldDxs = dxs;
+        long[] oldDys = dys;
+        int[] oldCounts = counts;
+        long[] oldMins = mins;
+        long[] oldMaxs = maxs;
+        int[] oldUsed = used;
+        int oldUsedCount = usedCount;
+
+        allocate(counts.length * 2);
+        int mask = counts.length - 1;
+        for (int i = 0; i < oldUsedCount; i++) {
+            int oldSlot = oldUsed[i];
+            int slot = hash(oldDxs[oldSlot], oldDys[oldSlot]) & mask;
+            while (counts[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            dxs[slot] = oldDxs[oldSlot];
+            dys[slot] = oldDys[oldSlot];
+            counts[slot] = oldCounts[oldSlot];
+            mins[slot] = oldMins[oldSlot];
+            maxs[slot] = oldMaxs[oldSlot];
+            used[usedCount++] = slot;
+        }
+    }
+
+    /**
+     * Number of distinct directions since the last clear.
+     *
+     * @return number of distinct directions.
+     */
+    int size() {
+        return usedCount;
+    }
+
+    /**
+     * The slot of the i-th distinct direction since the last clear.
+     *
+     * @param i index between 0 and size() - 1.
+     * @return the slot of the i-th distinct direction.
+     */
+    int slot(int i) {
+        return used[i];
+    }
+
+    /**
+     * The normalized x-component of the direction at slot.
+     *
+     * @param slot the slot of the direction.
+     * @return dx / g of the direction, pointed into the upper half plane.
+     */
+    long dx(int slot) {
+        return dxs[slot];
+    }
+
+    /**
+     * The normalized y-component of the direction at slot.
+     *
+     * @param slot the slot of the direction.
+     * @return dy / g of the direction, pointed into the upper half plane.
+     */
+    long dy(int slot) {
+        return dys[slot];
+    }
+
+    /**
+     * Number of points counted in the direction at slot.
+     *
+     * @param slot the slot of the direction.
+     * @return number of points counted in the direction.
+     */
+    int count(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * Smallest value added in the direction at slot.
+     *
+     * @param slot the slot of the direction.
+     * @return smallest value added in the direction.
+     */
+    long min(int slot) {
+        return mins[slot];
+    }
+
+    /**
+     * Largest value added in the direction at slot.
+     *
+     * @param slot the slot of the direction.
+     * @return largest value added in the direction.
+     */
+    long max(int slot) {
+        return maxs[slot];
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long temp = a % b;
+            a = b;
+            b = temp;
+        }
+        return a;
+    }
+
+    private static int hash(long dx, long dy) {
+        long h = dx * 0x9E3779B97F4A7C15L + dy;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    // unit testing of the methods
+    public static void main(String[] args) {
+        DirectionCounter directions = new DirectionCounter(4);
+        assert directions.size() == 0;
+
+        // points on both sides of the origin share a direction
+        int slot = directions.add(1, 1, 5);
+        assert directions.add(-2, -2, 3) == slot;
+        assert directions.dx(slot) == 1 && directions.dy(slot) == 1;
+        assert directions.add(3, 3, 9) == slot;
+        assert directions.count(slot) == 3;
+        assert directions.min(slot) == 3;
+        assert directions.max(slot) == 9;
+
+        // horizontal and vertical directions
+        int horizontal = directions.add(-4, 0, 1);
+        assert directions.add(7, 0, 2) == horizontal;
+        int vertical = directions.add(0, -1, 1);
+        assert directions.dx(vertical) == 0 && directions.dy(vertical) == 1;
+        assert directions.add(0, 2, 2) == vertical;
+        assert horizontal != vertical;
+        assert directions.size() == 3;
+
+        // growing keeps the counts
+        for (int i = 1; i <= 100; i++) {
+            directions.add(i, 101, i);
+        }
+        assert directions.size() == 103;
+        slot = directions.add(2, 2, 0);
+        assert directions.count(slot) == 4;
+        assert directions.min(slot) == 0;
+
+        directions.clear();
+        assert directions.size() == 0;
+        slot = directions.add(1, 1, 5);
+        assert directions.count(slot) == 1;
+    }
+}
@@ -1,11 +1,13 @@
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import edu.princeton.cs.algs4.StdOut;
-import edu.princeton.cs.algs4.StdRandom;
 
 public class FastCollinearPoints {
-    private int count = 0;
+    private static final int ORIGINS_PER_TASK = 32; // fewest origins searched by one fork-join leaf
+    private static final int INSERTION_SORT_CUTOFF = 8;
+
     private LineSegment[] lineSegments;
 
     /**
@@ -16,78 +18,140 @@ public class FastCollinearPoints {
      *                                  any two points are equal.
      */
     public FastCollinearPoints(Point[] points) {
+        this(points, false);
+    }
+
+    /**
+     * Finds all of the four point line segments for the given points, optionally
+     * searching the origin points in parallel. The parallel search returns the
+     * same segments in the same order as the sequential search.
+     * 
+     * @param points   Points to find the four point segments.
+     * @param parallel true to search the origin points across all cores of the
+     *                 common fork-join pool, otherwise false.
+     * @throws IllegalArgumentException when points is null, any point is null, or
+     *                                  any two points are equal.
+     */
+    public FastCollinearPoints(Point[] points, boolean parallel) {
+        // CompactPoints validates and sorts the points, so they are sorted once
+        this(new CompactPoints(points), parallel);
+    }
+
+    /**
+     * Finds all of the maximal line segments containing four or more of the given
+     * points, working on the packed coordinates directly. Point objects are only
+     * created for the endpoints of the segments found.
+     * 
+     * @param points Points to find the four point segments.
+     * @throws IllegalArgumentException when points is null.
+     */
+    public FastCollinearPoints(CompactPoints points) {
+        this(points, false);
+    }
+
+    /**
+     * Finds all of the maximal line segments containing four or more of the given
+     * points, working on the packed coordinates directly and optionally searching
+     * the origin points in parallel.
+     * 
+     * @param points   Points to find the four point segments.
+     * @param parallel true to search the origin points across all cores of the
+     *                 common fork-join pool, otherwise false.
+     * @throws IllegalArgumentException when points is null.
+     */
+    public FastCollinearPoints(CompactPoints points, boolean parallel) {
         if (points == null) {
             throw new IllegalArgumentException("Points must not be null.");
         }
-        Point[] copy = copy(points);
 
-        validateAndSortPoints(copy);
-        lineSegments = new LineSegment[copy.length * copy.length];
-        findLineSegments(copy);
+        SegmentBuffer endpoints = findLineSegments(points, parallel);
+        lineSegments = new LineSegment[endpoints.count];
+        for (int i = 0; i < endpoints.count; i++) {
+            lineSegments[i] = new LineSegment(points.point(endpoints.first(i)), points.point(endpoints.last(i)));
+        }
     }
 
-    private void validateAndSortPoints(Point[] points) {
-        for (Point p : points) {
-            if (p == null) {
-                throw new IllegalArgumentException("No point may be null.");
-            }
+    private static SegmentBuffer findLineSegments(CompactPoints points, boolean parallel) {
+        int length = points.size();
+        if (!parallel) {
+            return new OriginSearch(points, 0, length, length).compute();
         }
 
-        Arrays.sort(points);
-        for (int i = 0; i < points.length; i++) {
-            if ((i + 1) == points.length) {
-                break; // no more points to compare
-            }
-            if (points[i].compareTo(points[i + 1]) == 0) {
-                throw new IllegalArgumentException("No two points may be the same.");
-            }
-        }
+        // each leaf allocates its own scratch arrays, so keep the leaves few
+        // enough that the arrays are not reallocated for every handful of origins
+        int leaves = 4 * ForkJoinPool.commonPool().getParallelism();
+        int originsPerLeaf = Math.max(ORIGINS_PER_TASK, length / leaves + 1);
+        return ForkJoinPool.commonPool().invoke(new OriginSearch(points, 0, length, originsPerLeaf));
     }
 
-    // TODO The method segments() should include each maximal line segment
-    // containing 4 (or more) points exactly once. For example, if 5 points appear
-    // on a line segment in the order p→q→r→s→t, then do not include the subsegments
-    // p→s or q→t.
-    private void findLineSegments(Point[] points) {
-        for (int i = 0; i < points.length; i++) {
-            Point p = points[i];
-            Comparator<Point> pointSlopeTo = p.slopeOrder();
+    /**
+     * Finds the segments whose smallest point is the origin. The slopes from the
+     * origin are computed once per point and the indexes are sorted by slope with
+     * a stable sort. The indexes start in natural order, so each run of equal
+     * slopes comes out in natural order too: the run's first index is its
+     * smallest point and its last index is its largest. Checking that the origin
+     * is the smallest point of its line and finding the far endpoint are then
+     * single int comparisons, and the search allocates nothing per origin.
+     */
+    private static void findLineSegments(CompactPoints points, int origin, double[] slopes, int[] order, int[] aux,
+            SegmentBuffer buffer) {
+        int length = points.size();
+        for (int i = 0; i < length; i++) {
+            slopes[i] = points.slope(origin, i);
+            order[i] = i;
+        }
 
-            Point[] copy = copy(points);
-            Arrays.sort(copy, pointSlopeTo);
+        // order[0] is the origin itself (negative infinity)
+        sortBySlope(order, aux, slopes, 0, length);
 
-            for (int q = 0; q < copy.length - 3; q++) {
-                int r = q + 1;
-                int s = q + 2;
+        int runStart = 1;
+        for (int i = runStart + 1; i <= length; i++) {
+            if (i < length && slopes[order[runStart]] == slopes[order[i]]) {
+                continue; // run continues
+            }
 
-                if (p.compareTo(copy[q]) == 0 || p.compareTo(copy[r]) == 0 || p.compareTo(copy[s]) == 0) {
-                    continue; // skip point p
-                }
+            // only report the maximal segment, and only from its smallest point
+            if (i - runStart >= 3 && origin < order[runStart]) {
+                buffer.add(origin, order[i - 1]);
+            }
+            runStart = i;
+        }
+    }
 
-                if (pointSlopeTo.compare(copy[q], copy[r]) == 0 && pointSlopeTo.compare(copy[r], copy[s]) == 0) {
-                    if (count + 1 == lineSegments.length) {
-                        lineSegments = resize(lineSegments, count, lineSegments.length * 2);
-                    }
-                    lineSegments[count++] = new LineSegment(p, copy[s]);
+    // stable merge sort of order[lo, hi) by slope
+    private static void sortBySlope(int[] order, int[] aux, double[] slopes, int lo, int hi) {
+        if (hi - lo <= INSERTION_SORT_CUTOFF) {
+            for (int i = lo + 1; i < hi; i++) {
+                for (int j = i; j > lo && slopes[order[j]] < slopes[order[j - 1]]; j--) {
+                    int temp = order[j];
+                    order[j] = order[j - 1];
+                    order[j - 1] = temp;
                 }
             }
+            return;
         }
-    }
 
-    private LineSegment[] resize(LineSegment[] source, int sourceCount, int newCapacity) {
-        LineSegment[] temp = new LineSegment[newCapacity];
-        for (int i = 0; i < sourceCount; i++) {
-            temp[i] = source[i];
+        int mid = lo + (hi - lo) / 2;
+        sortBySlope(order, aux, slopes, lo, mid);
+        sortBySlope(order, aux, slopes, mid, hi);
+        if (slopes[order[mid - 1]] <= slopes[order[mid]]) {
+            return; // halves are already in order
         }
-        return temp;
-    }
 
-    private Point[] copy(Point[] source) {
-        Point[] copy = new Point[source.length];
-        for (int i = 0; i < source.length; i++) {
-            copy[i] = source[i];
+        System.arraycopy(order, lo, aux, lo, hi - lo);
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (i == mid) {
+                order[k] = aux[j++];
+            } else if (j == hi) {
+                order[k] = aux[i++];
+            } else if (slopes[aux[j]] < slopes[aux[i]]) {
+                order[k] = aux[j++];
+            } else {
+                order[k] = aux[i++];
+            }
         }
-        return copy;
     }
 
     /**
@@ -96,27 +160,98 @@ public class FastCollinearPoints {
      * @return count of all of the four point line segments.
      */
     public int numberOfSegments() {
-        return count;
+        return lineSegments.length;
     }
 
     /**
-     * Returns all of the four point line segments.
+     * Returns all of the maximal line segments containing four or more points.
      * 
-     * @return each line segment containing 4 points exactly once. If 4 points
-     *         appear on a line segment in the order p→q→r→s, then either the
-     *         line segment p→s or s→p is returned (but not both) and not the
-     *         subsegments such as p→r or q→r
+     * @return each maximal line segment containing 4 (or more) points exactly
+     *         once. If 5 points appear on a line segment in the order p→q→r→s→t,
+     *         then the line segment p→t is returned and not the subsegments such
+     *         as p→s or q→t
      */
     public LineSegment[] segments() {
-        return copy();
+        return Arrays.copyOf(lineSegments, lineSegments.length);
     }
 
-    private LineSegment[] copy() {
-        LineSegment[] copy = new LineSegment[count];
-        for (int i = 0; i < count; i++) {
-            copy[i] = lineSegments[i];
+    /**
+     * Endpoints, as point indexes, of the segments found by a single thread. Each
+     * fork-join leaf owns its buffer, so no synchronization is needed until the
+     * buffers are merged.
+     */
+    private static class SegmentBuffer {
+        private int[] endpoints = new int[8]; // first and last index of each segment
+        private int count;
+
+        private void add(int first, int last) {
+            if (2 * count == endpoints.length) {
+                endpoints = Arrays.copyOf(endpoints, endpoints.length * 2);
+            }
+            endpoints[2 * count] = first;
+            endpoints[2 * count + 1] = last;
+            count++;
+        }
+
+        private void addAll(SegmentBuffer other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.first(i), other.last(i));
+            }
+        }
+
+        private int first(int i) {
+            return endpoints[2 * i];
+        }
+
+        private int last(int i) {
+            return endpoints[2 * i + 1];
+        }
+    }
+
+    /**
+     * Searches the origin points in [lo, hi). Ranges are split in half until they
+     * are small enough to search sequentially, and the halves are merged left to
+     * right so the result is in the same order as the sequential search.
+     */
+    private static class OriginSearch extends RecursiveTask<SegmentBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        private final CompactPoints points;
+        private final int lo;
+        private final int hi;
+        private final int originsPerLeaf;
+
+        OriginSearch(CompactPoints points, int lo, int hi, int originsPerLeaf) {
+            this.points = points;
+            this.lo = lo;
+            this.hi = hi;
+            this.originsPerLeaf = originsPerLeaf;
+        }
+
+        @Override
+        protected SegmentBuffer compute() {
+            if (hi - lo <= originsPerLeaf) {
+                int length = points.size();
+                double[] slopes = new double[length];
+                int[] order = new int[length];
+                int[] aux = new int[length];
+
+                SegmentBuffer buffer = new SegmentBuffer();
+                for (int i = lo; i < hi; i++) {
+                    findLineSegments(points, i, slopes, order, aux, buffer);
+                }
+                return buffer;
+            }
+
+            int mid = lo + (hi - lo) / 2;
+            OriginSearch left = new OriginSearch(points, lo, mid, originsPerLeaf);
+            OriginSearch right = new OriginSearch(points, mid, hi, originsPerLeaf);
+            left.fork();
+            SegmentBuffer buffer = right.compute();
+            SegmentBuffer merged = left.join();
+            merged.addAll(buffer);
+            return merged;
         }
-        return copy;
     }
 
     /**
@@ -125,55 +260,52 @@ public class FastCollinearPoints {
     public static void main(String[] args) {
         // Base case four collinear points
         StdOut.println("Base case");
-        FastCollinearPoints fast = new FastCollinearPoints(getCollinearPoints(4));
-        assert fast.count == 1;
-        assert fast.lineSegments[0].toString().equals("(0, 0) -> (3, 3)");
+        FastCollinearPoints fast = new FastCollinearPoints(CollinearDatasets.collinear(4));
+        assert fast.numberOfSegments() == 1;
+        assert fast.segments()[0].toString().equals("(0, 0) -> (3, 3)");
 
         // Add one more collinear point
         StdOut.println("Five collinear case");
-        fast = new FastCollinearPoints(getCollinearPoints(5));
-        assert fast.count == 5;
+        fast = new FastCollinearPoints(CollinearDatasets.collinear(5));
+        assert fast.numberOfSegments() == 1;
+        assert fast.segments()[0].toString().equals("(0, 0) -> (4, 4)");
+
+        // Two crossing lines share the point (2, 2)
+        StdOut.println("Crossing lines case");
+        Point[] crossing = new Point[9];
+        for (int i = 0; i < 5; i++) {
+            crossing[i] = new Point(i, i);
+        }
+        crossing[5] = new Point(0, 4);
+        crossing[6] = new Point(1, 3);
+        crossing[7] = new Point(3, 1);
+        crossing[8] = new Point(4, 0);
+        fast = new FastCollinearPoints(crossing);
+        assert fast.numberOfSegments() == 2;
 
         StdOut.println("20 Random Points with max 20");
-        fast = new FastCollinearPoints(getRandomPoints(20, 20));
+        fast = new FastCollinearPoints(CollinearDatasets.random(20, 20));
         assert fast.numberOfSegments() >= 0;
 
         StdOut.println("40 Random Points with max 20");
-        fast = new FastCollinearPoints(getRandomPoints(40, 20));
+        fast = new FastCollinearPoints(CollinearDatasets.random(40, 20));
         assert fast.numberOfSegments() >= 0;
 
         StdOut.println("80 Random Points with max 20");
-        fast = new FastCollinearPoints(getRandomPoints(80, 20));
+        fast = new FastCollinearPoints(CollinearDatasets.random(80, 20));
         assert fast.numberOfSegments() >= 0;
-    }
-
-    private static Point[] getCollinearPoints(int count) {
-        Point[] points = new Point[count];
-        for (int i = 0; i < count; i++) {
-            points[i] = new Point(i, i);
-        }
-        return points;
-    }
 
-    private static Point[] getRandomPoints(int count, int max) {
-        Point[] points = new Point[count];
-        for (int i = 0; i < count; i++) {
-            boolean contains;
-            Point candidate;
-            do {
-                // create candidate point, see if point is already in points
-                contains = false;
-                candidate = new Point(StdRandom.uniformInt(max), StdRandom.uniformInt(max));
-                for (int j = 0; j < i; j++) {
-                    if (points[j].compareTo(candidate) == 0) {
-                        contains = true;
-                        break;
-                    }
-                }
-            } while (contains);
+        StdOut.println("Parallel search matches sequential search");
+        Point[] points = CollinearDatasets.random(400, 40);
+        fast = new FastCollinearPoints(points);
+        FastCollinearPoints parallel = new FastCollinearPoints(points, true);
+        assert parallel.numberOfSegments() == fast.numberOfSegments();
+        assert Arrays.toString(parallel.segments()).equals(Arrays.toString(fast.segments()));
 
-            points[i] = candidate;
-        }
-        return points;
+        StdOut.println("Compact points match points");
+        FastCollinearPoints compact = new FastCollinearPoints(new CompactPoints(points));
+        assert Arrays.toString(compact.segments()).equals(Arrays.toString(fast.segments()));
+        compact = new FastCollinearPoints(new CompactPoints(points), true);
+        assert Arrays.toString(compact.segments()).equals(Arrays.toString(fast.segments()));
     }
 }
\ No newline at end of file
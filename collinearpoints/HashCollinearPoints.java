@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.Stopwatch;
+
+public class HashCollinearPoints {
+    private int count = 0;
+    private LineSegment[] lineSegments;
+
+    /**
+     * Finds all of the maximal line segments containing four or more of the given
+     * points. Instead of sorting the other points by slope for every origin, the
+     * points are counted by direction in a hash table, which takes expected
+     * O(n^2) time and O(n) extra memory.
+     *
+     * @param points Points to find the four point segments.
+     * @throws IllegalArgumentException when points is null, any point is null, or
+     *                                  any two points are equal.
+     */
+    public HashCollinearPoints(Point[] points) {
+        this(new CompactPoints(points));
+    }
+
+    /**
+     * Finds all of the maximal line segments containing four or more of the given
+     * points, working on the packed coordinates directly. Point objects are only
+     * created for the endpoints of the segments found.
+     *
+     * @param points Points to find the four point segments.
+     * @throws IllegalArgumentException when points is null.
+     */
+    public HashCollinearPoints(CompactPoints points) {
+        if (points == null) {
+            throw new IllegalArgumentException("Points must not be null.");
+        }
+
+        lineSegments = new LineSegment[4];
+        findLineSegments(points);
+    }
+
+    private void findLineSegments(CompactPoints points) {
+        int length = points.size();
+        DirectionCounter directions = new DirectionCounter(length);
+        for (int i = 0; i < length; i++) {
+            int x = points.x(i);
+            int y = points.y(i);
+            directions.clear();
+            for (int j = 0; j < length; j++) {
+                if (j != i) {
+                    // points are in natural order, so the index orders the points on a line
+                    directions.add((long) points.x(j) - x, (long) points.y(j) - y, j);
+                }
+            }
+
+            for (int d = 0; d < directions.size(); d++) {
+                int slot = directions.slot(d);
+                // only report the maximal segment, and only from its smallest point
+                if (directions.count(slot) >= 3 && directions.min(slot) > i) {
+                    if (count == lineSegments.length) {
+                        lineSegments = Arrays.copyOf(lineSegments, count * 2);
+                    }
+                    Point last = points.point((int) directions.max(slot));
+                    lineSegments[count++] = new LineSegment(points.point(i), last);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a count of all of the maximal line segments.
+     *
+     * @return count of all of the maximal line segments.
+     */
+    public int numberOfSegments() {
+        return count;
+    }
+
+    /**
+     * Returns all of the maximal line segments containing four or more points.
+     *
+     * @return each maximal line segment containing 4 (or more) points exactly
+     *         once, in the same form as FastCollinearPoints.segments(), although
+     *         not necessarily in the same order.
+     */
+    public LineSegment[] segments() {
+        return Arrays.copyOf(lineSegments, count);
+    }
+
+    /**
+     * Unit tests HashCollinearPoints against FastCollinearPoints. When given a
+     * maximum number of points as an argument, also times both for doubling
+     * numbers of points to show where hashing overtakes sorting.
+     */
+    public static void main(String[] args) {
+        // Base case four collinear points
+        StdOut.println("Base case");
+        HashCollinearPoints hash = new HashCollinearPoints(CollinearDatasets.collinear(4));
+        assert hash.numberOfSegments() == 1;
+        assert hash.segments()[0].toString().equals("(0, 0) -> (3, 3)");
+
+        // Add one more collinear point
+        StdOut.println("Five collinear case");
+        hash = new HashCollinearPoints(CollinearDatasets.collinear(5));
+        assert hash.numberOfSegments() == 1;
+        assert hash.segments()[0].toString().equals("(0, 0) -> (4, 4)");
+
+        StdOut.println("Random points match FastCollinearPoints");
+        for (int n = 20; n <= 320; n *= 2) {
+            Point[] points = CollinearDatasets.random(n, 20);
+            assert sameSegments(new HashCollinearPoints(points).segments(),
+                    new FastCollinearPoints(points).segments());
+        }
+
+        StdOut.println("Compact points match points");
+        Point[] points = CollinearDatasets.random(200, 20);
+        int[] xs = new int[points.length];
+        int[] ys = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            xs[i] = points[i].x();
+            ys[i] = points[i].y();
+        }
+        assert Arrays.equals(toStrings(new HashCollinearPoints(new CompactPoints(xs, ys)).segments()),
+                toStrings(new HashCollinearPoints(points).segments()));
+
+        if (args.length > 0) {
+            benchmark(Integer.parseInt(args[0]));
+        }
+    }
+
+    private static boolean sameSegments(LineSegment[] a, LineSegment[] b) {
+        String[] first = toStrings(a);
+        String[] second = toStrings(b);
+        Arrays.sort(first);
+        Arrays.sort(second);
+        return Arrays.equals(first, second);
+    }
+
+    private static String[] toStrings(LineSegment[] segments) {
+        String[] strings = new String[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            strings[i] = segments[i].toString();
+        }
+        return strings;
+    }
+
+    private static void benchmark(int maxPoints) {
+        StdOut.printf("%10s %12s %12s %8s%n", "n", "fast (s)", "hash (s)", "ratio");
+        for (int n = 125; n <= maxPoints; n *= 2) {
+            // a grid about twice as wide as the points keeps a steady share of collinear points
+            Point[] points = CollinearDatasets.random(n, 2 * (int) Math.sqrt(n) + 4);
+
+            Stopwatch stopwatch = new Stopwatch();
+            new FastCollinearPoints(points);
+            double fastTime = stopwatch.elapsedTime();
+
+            stopwatch = new Stopwatch();
+            new HashCollinearPoints(points);
+            double hashTime = stopwatch.elapsedTime();
+
+            StdOut.printf("%10d %12.3f %12.3f %8.2f%n", n, fastTime, hashTime, fastTime / hashTime);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.LinearProbingHashST;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.StdOut;
+
+public class IncrementalCollinearPoints {
+    private long[] points; // packed points, see CompactPoints.pack()
+    private int size;
+
+    private DirectionCounter directions;
+    private LinearProbingHashST<Line, LineSegment> lines; // lines with four or more points
+
+    /**
+     * Key of a line through the points: its normalized direction and its offset
+     * dy * x - dx * y, which is the same for every point on the line.
+     */
+    private static class Line {
+        private final long dx;
+        private final long dy;
+        private final long offset;
+
+        Line(long dx, long dy, long offset) {
+            this.dx = dx;
+            this.dy = dy;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (that == null || getClass() != that.getClass()) {
+                return false;
+            }
+            Line other = (Line) that;
+            return dx == other.dx && dy == other.dy && offset == other.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            // the table indexes by the low bits, so mix the high bits down
+            long h = (dx * 31 + dy) * 0x9E3779B97F4A7C15L + offset;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            return (int) h;
+        }
+    }
+
+    /**
+     * Creates an empty set of points. Points are added one at a time and the
+     * maximal line segments containing four or more points are kept up to date.
+     */
+    public IncrementalCollinearPoints() {
+        points = new long[4];
+        size = 0;
+        directions = new DirectionCounter(4);
+        lines = new LinearProbingHashST<>();
+    }
+
+    /**
+     * Adds a point and finds the line segments it forms or extends. Each of the
+     * other points is counted by its direction from the new point, so adding a
+     * point takes expected time linear in the number of points.
+     *
+     * @param p point to add.
+     * @return the maximal line segments of four or more points that the point
+     *         forms or extends. A point added between the endpoints of an
+     *         existing segment leaves the segment unchanged and is not reported.
+     * @throws IllegalArgumentException when p is null or equal to a point
+     *                                  already added.
+     */
+    public Iterable<LineSegment> add(Point p) {
+        if (p == null) {
+            throw new IllegalArgumentException("Point must not be null.");
+        }
+
+        long key = CompactPoints.pack(p.x(), p.y());
+        directions.clear();
+        for (int i = 0; i < size; i++) {
+            long dx = (long) CompactPoints.unpackX(points[i]) - p.x();
+            long dy = (long) CompactPoints.unpackY(points[i]) - p.y();
+            if (dx == 0 && dy == 0) {
+                throw new IllegalArgumentException("No two points may be the same.");
+            }
+            directions.add(dx, dy, points[i]);
+        }
+
+        Queue<LineSegment> changed = new Queue<>();
+        for (int d = 0; d < directions.size(); d++) {
+            int slot = directions.slot(d);
+            int count = directions.count(slot);
+            long min = directions.min(slot);
+            long max = directions.max(slot);
+            if (count < 3 || (count > 3 && min < key && key < max)) {
+                continue; // too few points, or p is inside an existing segment
+            }
+
+            long dx = directions.dx(slot);
+            long dy = directions.dy(slot);
+            Line line = new Line(dx, dy, dy * p.x() - dx * p.y());
+            LineSegment segment = new LineSegment(CompactPoints.unpack(Math.min(min, key)),
+                    CompactPoints.unpack(Math.max(max, key)));
+            lines.put(line, segment);
+            changed.enqueue(segment);
+        }
+
+        if (size == points.length) {
+            points = Arrays.copyOf(points, size * 2);
+        }
+        points[size++] = key;
+        return changed;
+    }
+
+    /**
+     * Number of points added.
+     *
+     * @return number of points added.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a count of all of the maximal line segments.
+     *
+     * @return count of all of the maximal line segments.
+     */
+    public int numberOfSegments() {
+        return lines.size();
+    }
+
+    /**
+     * Returns all of the maximal line segments containing four or more of the
+     * points added so far.
+     *
+     * @return each maximal line segment containing 4 (or more) points exactly
+     *         once, from its smallest to its largest point.
+     */
+    public LineSegment[] segments() {
+        LineSegment[] segments = new LineSegment[lines.size()];
+        int i = 0;
+        for (Line line : lines.keys()) {
+            segments[i++] = lines.get(line);
+        }
+        return segments;
+    }
+
+    // unit testing of the methods
+    public static void main(String[] args) {
+        IncrementalCollinearPoints incremental = new IncrementalCollinearPoints();
+        assert incremental.size() == 0;
+        assert incremental.numberOfSegments() == 0;
+
+        StdOut.println("Forming a segment");
+        assert !incremental.add(new Point(0, 0)).iterator().hasNext();
+        assert !incremental.add(new Point(3, 3)).iterator().hasNext();
+        assert !incremental.add(new Point(1, 1)).iterator().hasNext();
+        Iterable<LineSegment> changed = incremental.add(new Point(4, 4));
+        assert changed.iterator().next().toString().equals("(0, 0) -> (4, 4)");
+        assert incremental.numberOfSegments() == 1;
+
+        StdOut.println("Inside an existing segment");
+        assert !incremental.add(new Point(2, 2)).iterator().hasNext();
+        assert incremental.numberOfSegments() == 1;
+
+        StdOut.println("Extending a segment");
+        changed = incremental.add(new Point(-1, -1));
+        assert changed.iterator().next().toString().equals("(-1, -1) -> (4, 4)");
+        assert incremental.numberOfSegments() == 1;
+        assert incremental.segments()[0].toString().equals("(-1, -1) -> (4, 4)");
+
+        StdOut.println("Duplicate point");
+        boolean thrown = false;
+        try {
+            incremental.add(new Point(3, 3));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown;
+        assert incremental.size() == 6;
+
+        StdOut.println("Random points match FastCollinearPoints");
+        Point[] points = CollinearDatasets.random(200, 20);
+        incremental = new IncrementalCollinearPoints();
+        for (int i = 0; i < points.length; i++) {
+            incremental.add(points[i]);
+            if (i % 50 == 49) {
+                Point[] added = Arrays.copyOf(points, i + 1);
+                assert sameSegments(incremental.segments(), new FastCollinearPoints(added).segments());
+            }
+        }
+    }
+
+    private static boolean sameSegments(LineSegment[] a, LineSegment[] b) {
+        String[] first = new String[a.length];
+        String[] second = new String[b.length];
+        for (int i = 0; i < a.length; i++) {
+            first[i] = a[i].toString();
+        }
+        for (int i = 0; i < b.length; i++) {
+            second[i] = b[i].toString();
+        }
+        Arrays.sort(first);
+        Arrays.sort(second);
+        return Arrays.equals(first, second);
+    }
+}
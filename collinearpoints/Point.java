@@ -30,6 +30,24 @@ public class Point implements Comparable<Point> {
         this.y = y;
     }
 
+    /**
+     * Returns the x-coordinate of this point.
+     *
+     * @return the <em>x</em>-coordinate of this point
+     */
+    int x() {
+        return x;
+    }
+
+    /**
+     * Returns the y-coordinate of this point.
+     *
+     * @return the <em>y</em>-coordinate of this point
+     */
+    int y() {
+        return y;
+    }
+
     /**
      * Draws this point to standard draw.
      */
@@ -155,6 +173,8 @@ public class Point implements Comparable<Point> {
         Point a = new Point(1, 1);
         assert a.x == 1;
         assert a.y == 1;
+        assert a.x() == 1;
+        assert a.y() == 1;
 
         // slopeTo assertions
         assert a.slopeTo(a) == Double.NEGATIVE_INFINITY : "Slope to the same point should be negative infinity.";
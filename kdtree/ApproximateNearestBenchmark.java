@@ -0,0 +1,81 @@
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ * Compares approximate nearest neighbor queries on KdTree with exact ones on
+ * the same tree, for a range of error bounds and node limits. For each setting
+ * it reports the time per query, the mean number of nodes visited, the recall
+ * (the share of queries answered with a point as near as the nearest) and the
+ * mean and worst ratio of the distance found to the nearest distance.
+ *
+ * Usage: java ApproximateNearestBenchmark [points] [queries]
+ */
+public class ApproximateNearestBenchmark {
+    private static final double[] EPSILONS = { 0, 0.05, 0.1, 0.25, 0.5, 1, 2 };
+    private static final int[] NODE_LIMITS = { Integer.MAX_VALUE, 200, 100, 50, 25 };
+
+    private ApproximateNearestBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = StdRandom.uniformDouble();
+            ys[i] = StdRandom.uniformDouble();
+        }
+        KdTree tree = new KdTree(xs, ys, true);
+
+        Point2D[] queries = new Point2D[queryCount];
+        double[] nearestDistances = new double[queryCount];
+        for (int i = 0; i < queryCount; i++) {
+            queries[i] = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+            nearestDistances[i] = queries[i].distanceTo(tree.nearest(queries[i]));
+        }
+
+        StdOut.printf("%d points, %d queries%n", n, queryCount);
+        StdOut.printf("%8s %10s %12s %10s %10s %12s %12s%n",
+                "epsilon", "max nodes", "us/query", "nodes", "recall", "mean ratio", "worst ratio");
+        for (int limit : NODE_LIMITS) {
+            for (double epsilon : EPSILONS) {
+                run(tree, queries, epsilon, limit); // warm up
+                Stopwatch stopwatch = new Stopwatch();
+                KdTree.Neighbor[] answers = run(tree, queries, epsilon, limit);
+                double seconds = stopwatch.elapsedTime();
+
+                long nodes = 0;
+                int exact = 0;
+                double ratioSum = 0;
+                double worstRatio = 1;
+                for (int i = 0; i < queryCount; i++) {
+                    nodes += answers[i].nodesVisited();
+                    double distance = queries[i].distanceTo(answers[i].point());
+                    double ratio = nearestDistances[i] == 0 ? 1 : distance / nearestDistances[i];
+                    if (distance == nearestDistances[i]) {
+                        exact++;
+                    }
+                    ratioSum += ratio;
+                    worstRatio = Math.max(worstRatio, ratio);
+                }
+
+                StdOut.printf("%8.2f %10s %12.2f %10.1f %10.4f %12.4f %12.4f%n", epsilon,
+                        limit == Integer.MAX_VALUE ? "-" : Integer.toString(limit), 1e6 * seconds / queryCount,
+                        nodes / (double) queryCount, exact / (double) queryCount, ratioSum / queryCount,
+                        worstRatio);
+            }
+        }
+    }
+
+    private static KdTree.Neighbor[] run(KdTree tree, Point2D[] queries, double epsilon, int maxNodes) {
+        KdTree.Neighbor[] answers = new KdTree.Neighbor[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            answers[i] = tree.nearest(queries[i], epsilon, maxNodes);
+        }
+        return answers;
+    }
+}
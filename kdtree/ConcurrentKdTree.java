@@ -0,0 +1,502 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdRandom;
+
+/**
+ * A 2d-tree that many threads can query while others insert, without locks.
+ * Nodes are never modified: an insert copies the nodes on the path to the new
+ * leaf and publishes the new root with a compare-and-set. Readers load the
+ * root once per query, so every query sees the tree as it was at one instant,
+ * and a snapshot can be kept for a series of queries at no cost.
+ */
+public class ConcurrentKdTree {
+    private static final boolean VERTICAL = true;
+    private static final double ALPHA = 0.7; // no subtree may hold more than this share of its parent's nodes
+    private static final ThreadLocal<QueryStack<Node>> QUERY_STACKS = ThreadLocal
+            .withInitial(() -> new QueryStack<>(4));
+
+    private final AtomicReference<Version> version;
+
+    private static class Node {
+        private final Point2D point;
+        private final Node left; // the left/bottom subtree
+        private final Node right; // the right/top subtree
+        private final boolean orientation; // true = VERTICAL (x-coord), false = HORIZONTAL (y-coord)
+        private final int count; // nodes in the subtree
+
+        Node(Point2D point, boolean orientation, Node left, Node right) {
+            this.point = point;
+            this.orientation = orientation;
+            this.left = left;
+            this.right = right;
+            this.count = 1 + count(left) + count(right);
+        }
+    }
+
+    /**
+     * The root with the bounding box of its points, published together so a
+     * reader never sees a box that is missing a point of the tree.
+     */
+    private static class Version {
+        private final Node root;
+        private final double minX;
+        private final double minY;
+        private final double maxX;
+        private final double maxY;
+
+        Version(Node root, double minX, double minY, double maxX, double maxY) {
+            this.root = root;
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+        }
+    }
+
+    /**
+     * Represents an empty set of points anywhere in the plane.
+     *
+     */
+    public ConcurrentKdTree() {
+        version = new AtomicReference<>(new Version(null, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY));
+    }
+
+    /**
+     * Represents the given points as a perfectly balanced tree.
+     *
+     * @param points the points in the set; equal points are added once.
+     * @throws IllegalArgumentException when points is null or any point is null.
+     */
+    public ConcurrentKdTree(Point2D[] points) {
+        if (points == null) {
+            throw new IllegalArgumentException("Points must not be null.");
+        }
+        for (Point2D p : points) {
+            throwIfNull(p);
+        }
+
+        Point2D[] copy = Arrays.copyOf(points, points.length);
+        int size = KdTree.removeDuplicates(copy);
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            minX = Math.min(minX, copy[i].x());
+            minY = Math.min(minY, copy[i].y());
+            maxX = Math.max(maxX, copy[i].x());
+            maxY = Math.max(maxY, copy[i].y());
+        }
+        version = new AtomicReference<>(new Version(build(copy, 0, size, VERTICAL), minX, minY, maxX, maxY));
+    }
+
+    private ConcurrentKdTree(Version version) {
+        this.version = new AtomicReference<>(version);
+    }
+
+    // builds a balanced subtree of points[lo, hi)
+    private static Node build(Point2D[] points, int lo, int hi, boolean orientation) {
+        if (lo >= hi) {
+            return null;
+        }
+
+        int split = KdTree.split(points, lo, hi, orientation);
+        return new Node(points[split], orientation, build(points, lo, split, !orientation),
+                build(points, split + 1, hi, !orientation));
+    }
+
+    /**
+     *
+     * The set as it is now. Later inserts into either tree are not seen by the
+     * other, and taking the snapshot copies nothing.
+     *
+     * @return a tree of the points in the set.
+     */
+    public ConcurrentKdTree snapshot() {
+        return new ConcurrentKdTree(version.get());
+    }
+
+    /**
+     *
+     * Is the set empty.
+     *
+     * @return true if the set empty, otherwise false.
+     */
+    public boolean isEmpty() {
+        return version.get().root == null;
+    }
+
+    /**
+     *
+     * Number of points in the set.
+     *
+     * @return number of points in the set.
+     */
+    public int size() {
+        return count(version.get().root);
+    }
+
+    /**
+     *
+     * Add the point to the set (if it is not already in the set). The nodes on
+     * the path to the new leaf are copied, and when the leaf would be deeper
+     * than log(n) / log(1 / ALPHA) the highest subtree out of balance is
+     * rebuilt instead, as in KdTree. Concurrent inserts retry until their
+     * new root is the one published.
+     *
+     * @param p point to add.
+     * @throws IllegalArgumentException when p is null.
+     */
+    public void insert(Point2D p) {
+        throwIfNull(p);
+
+        while (true) {
+            Version current = version.get();
+            if (contains(current.root, p)) {
+                return;
+            }
+
+            Node scapegoat = null;
+            if (depth(current.root, p) > Math.log(count(current.root) + 1) / Math.log(1 / ALPHA)) {
+                scapegoat = scapegoat(current.root, p);
+            }
+            Node root = insert(current.root, p, VERTICAL, scapegoat);
+            Version next = new Version(root, Math.min(current.minX, p.x()), Math.min(current.minY, p.y()),
+                    Math.max(current.maxX, p.x()), Math.max(current.maxY, p.y()));
+            if (version.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    // copies the path to the point's leaf, or rebuilds the scapegoat's subtree
+    // with the point when the path reaches it
+    private static Node insert(Node node, Point2D point, boolean orientation, Node scapegoat) {
+        if (node == null) {
+            return new Node(point, orientation, null, null);
+        }
+        if (node == scapegoat) {
+            Point2D[] points = new Point2D[node.count + 1];
+            collect(node, points, 0);
+            points[node.count] = point;
+            return build(points, 0, points.length, node.orientation);
+        }
+
+        if (goesRight(node, point))
+            return new Node(node.point, node.orientation, node.left,
+                    insert(node.right, point, !node.orientation, scapegoat));
+        return new Node(node.point, node.orientation, insert(node.left, point, !node.orientation, scapegoat),
+                node.right);
+    }
+
+    // depth the point's leaf would have
+    private static int depth(Node node, Point2D point) {
+        int depth = 0;
+        while (node != null) {
+            node = goesRight(node, point) ? node.right : node.left;
+            depth++;
+        }
+        return depth;
+    }
+
+    // the highest node on the path to the point where one child would hold more
+    // than ALPHA of the subtree's nodes once the point is added
+    private static Node scapegoat(Node node, Point2D point) {
+        while (node != null) {
+            boolean right = goesRight(node, point);
+            int heavier = Math.max(count(node.left) + (right ? 0 : 1), count(node.right) + (right ? 1 : 0));
+            if (heavier > ALPHA * (node.count + 1)) {
+                return node;
+            }
+            node = right ? node.right : node.left;
+        }
+        return null;
+    }
+
+    // copies the points of the subtree into points from index i, returning the
+    // index after the last one copied
+    private static int collect(Node node, Point2D[] points, int i) {
+        if (node == null) {
+            return i;
+        }
+
+        i = collect(node.left, points, i);
+        points[i++] = node.point;
+        return collect(node.right, points, i);
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    // true when the point belongs in the right subtree of the node, which holds
+    // the points with an equal or larger coordinate along the node's axis
+    private static boolean goesRight(Node node, Point2D point) {
+        if (node.orientation == VERTICAL)
+            return point.x() >= node.point.x();
+        return point.y() >= node.point.y(); // HORIZONTAL
+    }
+
+    /**
+     *
+     * Does the set contain point p?
+     *
+     * @param p point to check.
+     * @return true if the points is contained in the set, otherwise false.
+     * @throws IllegalArgumentException when p is null.
+     */
+    public boolean contains(Point2D p) {
+        throwIfNull(p);
+        return contains(version.get().root, p);
+    }
+
+    private static boolean contains(Node node, Point2D p) {
+        while (node != null) {
+            if (node.point.equals(p))
+                return true;
+            node = goesRight(node, p) ? node.right : node.left;
+        }
+        return false;
+    }
+
+    /**
+     *
+     * All points that are inside the rectangle (or on the boundary).
+     *
+     * @param rect rectangle to check what points are in boundary.
+     * @return all points in or on the boundar of the rectangle.
+     * @throws IllegalArgumentException when rect is null.
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) {
+            throw new IllegalArgumentException("Rectangle must not be null.");
+        }
+
+        Stack<Point2D> pointsInRect = new Stack<>();
+        Version current = version.get();
+        if (current.root == null) {
+            return pointsInRect;
+        }
+
+        double queryXmin = rect.xmin();
+        double queryYmin = rect.ymin();
+        double queryXmax = rect.xmax();
+        double queryYmax = rect.ymax();
+
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(current.root, 0, current.minX, current.minY, current.maxX, current.maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            if (xmax < queryXmin || xmin > queryXmax || ymax < queryYmin || ymin > queryYmax) {
+                continue; // the node's rectangle does not intersect the query
+            }
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            if (queryXmin <= nodeX && nodeX <= queryXmax && queryYmin <= nodeY && nodeY <= queryYmax)
+                pointsInRect.push(node.point);
+
+            if (node.orientation == VERTICAL) {
+                if (node.left != null)
+                    stack.push(node.left, 0, xmin, ymin, nodeX, ymax);
+                if (node.right != null)
+                    stack.push(node.right, 0, nodeX, ymin, xmax, ymax);
+            } else { // HORIZONTAL
+                if (node.left != null)
+                    stack.push(node.left, 0, xmin, ymin, xmax, nodeY);
+                if (node.right != null)
+                    stack.push(node.right, 0, xmin, nodeY, xmax, ymax);
+            }
+        }
+        return pointsInRect;
+    }
+
+    /**
+     *
+     * A nearest neighbor in the set to point p.
+     *
+     * @param p point to check for its nearest neighbor.
+     * @return the nearest point.
+     * @throws IllegalArgumentException when p is null or the set is empty.
+     */
+    public Point2D nearest(Point2D p) {
+        throwIfNull(p);
+
+        Version current = version.get();
+        if (current.root == null)
+            throw new IllegalArgumentException("No nearest point in as not points.");
+
+        double queryX = p.x();
+        double queryY = p.y();
+        Point2D nearest = current.root.point;
+        double distanceToNearestPoint = p.distanceSquaredTo(nearest);
+
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(current.root, 0, current.minX, current.minY, current.maxX, current.maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            if (KdTree.distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) >= distanceToNearestPoint) {
+                continue; // a nearer point was found after this node was pushed
+            }
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            double distance = (nodeX - queryX) * (nodeX - queryX) + (nodeY - queryY) * (nodeY - queryY);
+            if (distance < distanceToNearestPoint) {
+                nearest = node.point;
+                distanceToNearestPoint = distance;
+                if (distance == 0) {
+                    stack.clear();
+                    break; // the query point itself
+                }
+            }
+
+            // push the far child first so the child on the query point's side is
+            // searched first and shrinks the distance for pruning the far child
+            if (node.orientation == VERTICAL) {
+                if (queryX < nodeX) {
+                    pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY, distanceToNearestPoint);
+                } else {
+                    pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY, distanceToNearestPoint);
+                }
+            } else { // HORIZONTAL
+                if (queryY < nodeY) {
+                    pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY, distanceToNearestPoint);
+                } else {
+                    pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY, distanceToNearestPoint);
+                }
+            }
+        }
+        return nearest;
+    }
+
+    private static void pushIfCloser(QueryStack<Node> stack, Node node, double xmin, double ymin, double xmax,
+            double ymax, double queryX, double queryY, double distanceToNearestPoint) {
+        if (node != null && KdTree.distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) < distanceToNearestPoint)
+            stack.push(node, 0, xmin, ymin, xmax, ymax);
+    }
+
+    private static void throwIfNull(Point2D p) {
+        if (p == null) {
+            throw new IllegalArgumentException("Point must not be null.");
+        }
+    }
+
+    // unit testing of the methods
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentKdTree tree = new ConcurrentKdTree();
+        assert tree.isEmpty();
+        assert tree.size() == 0;
+        assert !tree.range(new RectHV(0, 0, 1, 1)).iterator().hasNext();
+
+        Point2D point1x1 = new Point2D(0.1, 0.1);
+        Point2D point2x2 = new Point2D(0.2, 0.2);
+        Point2D point3x3 = new Point2D(0.3, 0.3);
+        tree.insert(point1x1);
+        ConcurrentKdTree snapshot = tree.snapshot();
+        tree.insert(point2x2);
+        tree.insert(point3x3);
+        tree.insert(point3x3);
+        assert tree.size() == 3;
+        assert snapshot.size() == 1 : "A snapshot should not see later inserts.";
+        assert !snapshot.contains(point2x2);
+        assert tree.nearest(new Point2D(0.26, 0.25)).equals(point3x3);
+        assert snapshot.nearest(new Point2D(0.26, 0.25)).equals(point1x1);
+
+        // sorted insertions stay balanced
+        tree = new ConcurrentKdTree();
+        for (int i = 0; i < 1 << 14; i++) {
+            tree.insert(new Point2D(i, -i));
+        }
+        assert tree.size() == 1 << 14;
+        assert height(tree.version.get().root) <= 1 + Math.log(1 << 14) / Math.log(1 / ALPHA);
+
+        // the same answers as a brute force search
+        Point2D[] random = new Point2D[20000];
+        PointSET pointSet = new PointSET();
+        tree = new ConcurrentKdTree();
+        for (int i = 0; i < random.length; i++) {
+            random[i] = new Point2D(StdRandom.uniformDouble(-10, 10), StdRandom.uniformDouble(-10, 10));
+            pointSet.insert(random[i]);
+            tree.insert(random[i]);
+        }
+        ConcurrentKdTree bulk = new ConcurrentKdTree(random);
+        assert bulk.size() == pointSet.size();
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(-11, 11), StdRandom.uniformDouble(-11, 11));
+            double distance = query.distanceSquaredTo(pointSet.nearest(query));
+            assert query.distanceSquaredTo(tree.nearest(query)) == distance;
+            assert query.distanceSquaredTo(bulk.nearest(query)) == distance;
+
+            RectHV rect = new RectHV(query.x(), query.y(), query.x() + 1, query.y() + 1);
+            int expected = count(pointSet.range(rect));
+            assert count(tree.range(rect)) == expected;
+            assert count(bulk.range(rect)) == expected;
+        }
+
+        // readers see whole inserts while several writers insert
+        ConcurrentKdTree shared = new ConcurrentKdTree();
+        RectHV all = new RectHV(0, 0, 1, 1);
+        int writers = 3;
+        int perWriter = 5000;
+        Thread[] threads = new Thread[writers + 1];
+        for (int w = 0; w < writers; w++) {
+            int writer = w;
+            threads[w] = new Thread(() -> {
+                for (int i = 0; i < perWriter; i++) {
+                    shared.insert(new Point2D((writer * perWriter + i) / (double) (writers * perWriter), 0.5));
+                }
+            });
+        }
+        boolean[] consistent = { true };
+        threads[writers] = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                ConcurrentKdTree view = shared.snapshot();
+                consistent[0] &= count(view.range(all)) == view.size();
+            }
+        });
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert consistent[0] : "Every snapshot should hold exactly its points.";
+        assert shared.size() == writers * perWriter;
+        assert count(shared.range(all)) == writers * perWriter;
+    }
+
+    private static int height(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        return 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D p : points) {
+            count++;
+        }
+        return count;
+    }
+}
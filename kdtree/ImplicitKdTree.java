@@ -0,0 +1,601 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ * An immutable 2d-tree packed into one array. The tree is balanced and complete,
+ * so instead of node objects the node at index i has its children at 2i + 1 and
+ * 2i + 2, and its coordinates at coords[2i] and coords[2i + 1]. Nodes at even
+ * depths split on x and nodes at odd depths split on y. A search reads
+ * neighbouring doubles rather than following references across the heap.
+ *
+ * Since the layout needs nothing but the coordinates, write() saves the tree
+ * as a header and the same doubles, and load() maps such a file and queries it
+ * in place: loading takes no time beyond the mapping, and processes that load
+ * the same file share its pages.
+ */
+public class ImplicitKdTree {
+    private static final int MAGIC = 0x4B645472; // "KdTr"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 16; // magic, version, size and an unused int
+    private static final int BOUNDS = 4; // doubles of the bounding box before the coordinates
+
+    private final DoubleBuffer coords; // x and y of each node, in tree order
+    private final int size;
+
+    // bounding box of the points, the rectangle of the root
+    private final double xmin;
+    private final double ymin;
+    private final double xmax;
+    private final double ymax;
+
+    private static final ThreadLocal<QueryStack<Void>> QUERY_STACKS = ThreadLocal
+            .withInitial(() -> new QueryStack<>(4));
+
+    /**
+     * Builds a tree of the given points.
+     *
+     * @param points the points in the set; equal points are added once.
+     * @throws IllegalArgumentException when points is null or any point is null.
+     */
+    public ImplicitKdTree(Point2D[] points) {
+        this(layout(points));
+    }
+
+    /**
+     * Builds a tree of the points (xs[i], ys[i]).
+     *
+     * @param xs the x-coordinates of the points.
+     * @param ys the y-coordinates of the points.
+     * @throws IllegalArgumentException when xs or ys is null, or they differ in
+     *                                  length.
+     */
+    public ImplicitKdTree(double[] xs, double[] ys) {
+        this(toPoints(xs, ys));
+    }
+
+    // a tree over the bounding box followed by the coordinates in tree order
+    private ImplicitKdTree(DoubleBuffer data) {
+        xmin = data.get(0);
+        ymin = data.get(1);
+        xmax = data.get(2);
+        ymax = data.get(3);
+        size = (data.limit() - BOUNDS) / 2;
+        data.position(BOUNDS);
+        coords = data.slice();
+    }
+
+    private static Point2D[] toPoints(double[] xs, double[] ys) {
+        if (xs == null || ys == null) {
+            throw new IllegalArgumentException("Coordinates must not be null.");
+        }
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("There must be as many x-coordinates as y-coordinates.");
+        }
+
+        Point2D[] points = new Point2D[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            points[i] = new Point2D(xs[i], ys[i]);
+        }
+        return points;
+    }
+
+    // the bounding box and the coordinates in tree order of the distinct points
+    private static DoubleBuffer layout(Point2D[] points) {
+        if (points == null) {
+            throw new IllegalArgumentException("Points must not be null.");
+        }
+        for (Point2D p : points) {
+            if (p == null) {
+                throw new IllegalArgumentException("Point must not be null.");
+            }
+        }
+
+        Point2D[] copy = Arrays.copyOf(points, points.length);
+        int size = KdTree.removeDuplicates(copy);
+        double[] data = new double[BOUNDS + 2 * size];
+
+        data[0] = Double.POSITIVE_INFINITY;
+        data[1] = Double.POSITIVE_INFINITY;
+        data[2] = Double.NEGATIVE_INFINITY;
+        data[3] = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            data[0] = Math.min(data[0], copy[i].x());
+            data[1] = Math.min(data[1], copy[i].y());
+            data[2] = Math.max(data[2], copy[i].x());
+            data[3] = Math.max(data[3], copy[i].y());
+        }
+
+        build(copy, 0, size, 0, true, data);
+        return DoubleBuffer.wrap(data);
+    }
+
+    // places the complete subtree of points[lo, hi) at node index
+    private static void build(Point2D[] points, int lo, int hi, int index, boolean vertical, double[] data) {
+        if (lo >= hi) {
+            return;
+        }
+
+        int median = lo + leftSize(hi - lo);
+        KdTree.select(points, lo, hi - 1, median, vertical);
+        data[BOUNDS + 2 * index] = points[median].x();
+        data[BOUNDS + 2 * index + 1] = points[median].y();
+        build(points, lo, median, 2 * index + 1, !vertical, data);
+        build(points, median + 1, hi, 2 * index + 2, !vertical, data);
+    }
+
+    /**
+     * Saves the tree to a file that load() can map: a 16 byte header of the
+     * format's magic number, its version and the number of points, then the
+     * bounding box and the coordinates in tree order, as little-endian doubles.
+     *
+     * @param path file to write; it is replaced if it exists.
+     * @throws IllegalArgumentException when path is null.
+     * @throws IOException              when the file cannot be written.
+     */
+    public void write(Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null.");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(size).putInt(0);
+            buffer.putDouble(xmin).putDouble(ymin).putDouble(xmax).putDouble(ymax);
+            for (int i = 0; i < 2 * size; i++) {
+                if (!buffer.hasRemaining()) {
+                    flush(buffer, channel);
+                }
+                buffer.putDouble(coords.get(i));
+            }
+            flush(buffer, channel);
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Maps a file saved by write() and returns a tree that queries the mapped
+     * file directly, without reading it into the heap. A file can be mapped by
+     * many trees and processes at once, and must not change while mapped. The
+     * whole file is one mapping, so it is limited to 2 GB, about 130 million
+     * points.
+     *
+     * @param path file saved by write().
+     * @return a tree of the points in the file.
+     * @throws IllegalArgumentException when path is null.
+     * @throws IOException              when the file cannot be read or was not
+     *                                  saved by write().
+     */
+    public static ImplicitKdTree load(Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("Path must not be null.");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES + Double.BYTES * BOUNDS || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a saved ImplicitKdTree: " + path);
+            }
+
+            // the mapping stays valid after the channel is closed
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length).order(ByteOrder.LITTLE_ENDIAN);
+            int size = mapped.getInt(8);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION || size < 0
+                    || length != HEADER_BYTES + Double.BYTES * (BOUNDS + 2L * size)) {
+                throw new IOException("Not a saved ImplicitKdTree: " + path);
+            }
+
+            mapped.position(HEADER_BYTES);
+            return new ImplicitKdTree(mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+        }
+    }
+
+    // number of nodes in the left subtree of a complete tree of n nodes
+    static int leftSize(int n) {
+        int height = 31 - Integer.numberOfLeadingZeros(n); // levels above the last one
+        int full = (1 << height) - 1; // nodes above the last level
+        int last = n - full; // nodes on the last level
+        return (full - 1) / 2 + Math.min(last, (full + 1) / 2);
+    }
+
+    // nodes at even depths split on x
+    private static boolean isVertical(int index) {
+        return ((31 - Integer.numberOfLeadingZeros(index + 1)) & 1) == 0;
+    }
+
+    /**
+     *
+     * Is the set empty.
+     *
+     * @return true if the set empty, otherwise false.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *
+     * Number of points in the set.
+     *
+     * @return number of points in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * Does the set contain point p?
+     *
+     * @param p point to check.
+     * @return true if the points is contained in the set, otherwise false.
+     * @throws IllegalArgumentException when p is null.
+     */
+    public boolean contains(Point2D p) {
+        throwIfNull(p);
+
+        double queryX = p.x();
+        double queryY = p.y();
+        QueryStack<Void> stack = QueryStack.take(QUERY_STACKS);
+        if (size > 0) {
+            stack.push(null, 0);
+        }
+        while (stack.size > 0) {
+            stack.pop();
+            int index = stack.keys[stack.size];
+            double nodeX = coords.get(2 * index);
+            double nodeY = coords.get(2 * index + 1);
+            if (nodeX == queryX && nodeY == queryY) {
+                stack.clear();
+                return true;
+            }
+
+            // points equal to the split coordinate may be on either side
+            double query = isVertical(index) ? queryX : queryY;
+            double split = isVertical(index) ? nodeX : nodeY;
+            if (query <= split && 2 * index + 1 < size)
+                stack.push(null, 2 * index + 1);
+            if (query >= split && 2 * index + 2 < size)
+                stack.push(null, 2 * index + 2);
+        }
+        return false;
+    }
+
+    /**
+     *
+     * All points that are inside the rectangle (or on the boundary).
+     *
+     * @param rect rectangle to check what points are in boundary.
+     * @return all points in or on the boundar of the rectangle.
+     * @throws IllegalArgumentException when rect is null.
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) {
+            throw new IllegalArgumentException("Rectangle must not be null.");
+        }
+
+        double queryXmin = rect.xmin();
+        double queryYmin = rect.ymin();
+        double queryXmax = rect.xmax();
+        double queryYmax = rect.ymax();
+
+        Queue<Point2D> pointsInRect = new Queue<>();
+        QueryStack<Void> stack = QueryStack.take(QUERY_STACKS);
+        if (size > 0) {
+            stack.push(null, 0, xmin, ymin, xmax, ymax);
+        }
+        while (stack.size > 0) {
+            stack.pop();
+            int top = stack.size;
+            int index = stack.keys[top];
+            double nodeXmin = stack.bounds[4 * top];
+            double nodeYmin = stack.bounds[4 * top + 1];
+            double nodeXmax = stack.bounds[4 * top + 2];
+            double nodeYmax = stack.bounds[4 * top + 3];
+            if (nodeXmax < queryXmin || nodeXmin > queryXmax || nodeYmax < queryYmin || nodeYmin > queryYmax) {
+                continue; // the node's rectangle does not intersect the query
+            }
+
+            double nodeX = coords.get(2 * index);
+            double nodeY = coords.get(2 * index + 1);
+            if (queryXmin <= nodeX && nodeX <= queryXmax && queryYmin <= nodeY && nodeY <= queryYmax)
+                pointsInRect.enqueue(new Point2D(nodeX, nodeY));
+
+            int left = 2 * index + 1;
+            int right = 2 * index + 2;
+            if (isVertical(index)) {
+                if (left < size)
+                    stack.push(null, left, nodeXmin, nodeYmin, nodeX, nodeYmax);
+                if (right < size)
+                    stack.push(null, right, nodeX, nodeYmin, nodeXmax, nodeYmax);
+            } else {
+                if (left < size)
+                    stack.push(null, left, nodeXmin, nodeYmin, nodeXmax, nodeY);
+                if (right < size)
+                    stack.push(null, right, nodeXmin, nodeY, nodeXmax, nodeYmax);
+            }
+        }
+        return pointsInRect;
+    }
+
+    /**
+     *
+     * A nearest neighbor in the set to point p.
+     *
+     * @param p point to check for its nearest neighbor.
+     * @return the nearest point.
+     * @throws IllegalArgumentException when p is null or the set is empty.
+     */
+    public Point2D nearest(Point2D p) {
+        throwIfNull(p);
+        if (size == 0)
+            throw new IllegalArgumentException("No nearest point in as not points.");
+
+        double queryX = p.x();
+        double queryY = p.y();
+        int nearest = 0;
+        double distanceToNearestPoint = distanceSquared(0, queryX, queryY);
+
+        QueryStack<Void> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(null, 0, xmin, ymin, xmax, ymax);
+        while (stack.size > 0) {
+            stack.pop();
+            int top = stack.size;
+            int index = stack.keys[top];
+            double nodeXmin = stack.bounds[4 * top];
+            double nodeYmin = stack.bounds[4 * top + 1];
+            double nodeXmax = stack.bounds[4 * top + 2];
+            double nodeYmax = stack.bounds[4 * top + 3];
+            double boxDistance = KdTree.distanceSquared(nodeXmin, nodeYmin, nodeXmax, nodeYmax, queryX, queryY);
+            if (boxDistance >= distanceToNearestPoint) {
+                continue; // a nearer point was found after this node was pushed
+            }
+
+            double distance = distanceSquared(index, queryX, queryY);
+            if (distance < distanceToNearestPoint) {
+                nearest = index;
+                distanceToNearestPoint = distance;
+                if (distance == 0) {
+                    stack.clear();
+                    break; // the query point itself
+                }
+            }
+
+            // push the far child first so the child on the query point's side is
+            // searched first and shrinks the distance for pruning the far child
+            double nodeX = coords.get(2 * index);
+            double nodeY = coords.get(2 * index + 1);
+            int left = 2 * index + 1;
+            int right = 2 * index + 2;
+            if (isVertical(index)) {
+                if (queryX < nodeX) {
+                    pushIfCloser(stack, right, nodeX, nodeYmin, nodeXmax, nodeYmax, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, left, nodeXmin, nodeYmin, nodeX, nodeYmax, queryX, queryY, distanceToNearestPoint);
+                } else {
+                    pushIfCloser(stack, left, nodeXmin, nodeYmin, nodeX, nodeYmax, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, right, nodeX, nodeYmin, nodeXmax, nodeYmax, queryX, queryY, distanceToNearestPoint);
+                }
+            } else {
+                if (queryY < nodeY) {
+                    pushIfCloser(stack, right, nodeXmin, nodeY, nodeXmax, nodeYmax, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, left, nodeXmin, nodeYmin, nodeXmax, nodeY, queryX, queryY, distanceToNearestPoint);
+                } else {
+                    pushIfCloser(stack, left, nodeXmin, nodeYmin, nodeXmax, nodeY, queryX, queryY, distanceToNearestPoint);
+                    pushIfCloser(stack, right, nodeXmin, nodeY, nodeXmax, nodeYmax, queryX, queryY, distanceToNearestPoint);
+                }
+            }
+        }
+        return new Point2D(coords.get(2 * nearest), coords.get(2 * nearest + 1));
+    }
+
+    private void pushIfCloser(QueryStack<Void> stack, int index, double nodeXmin, double nodeYmin, double nodeXmax,
+            double nodeYmax, double queryX, double queryY, double distanceToNearestPoint) {
+        if (index < size && KdTree.distanceSquared(nodeXmin, nodeYmin, nodeXmax, nodeYmax, queryX,
+                queryY) < distanceToNearestPoint)
+            stack.push(null, index, nodeXmin, nodeYmin, nodeXmax, nodeYmax);
+    }
+
+    // squared distance from (x, y) to the point at the node index
+    private double distanceSquared(int index, double x, double y) {
+        double dx = coords.get(2 * index) - x;
+        double dy = coords.get(2 * index + 1) - y;
+        return dx * dx + dy * dy;
+    }
+
+    private static void throwIfNull(Point2D p) {
+        if (p == null) {
+            throw new IllegalArgumentException("Point must not be null.");
+        }
+    }
+
+    // unit testing of the methods; with a number of points as an argument, also
+    // times nearest() against KdTree on that many points
+    public static void main(String[] args) throws IOException {
+        ImplicitKdTree empty = new ImplicitKdTree(new Point2D[0]);
+        assert empty.isEmpty();
+        assert !empty.contains(new Point2D(0.5, 0.5));
+        assert !empty.range(new RectHV(0, 0, 1, 1)).iterator().hasNext();
+        boolean thrown = false;
+        try {
+            empty.nearest(new Point2D(0.5, 0.5));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown : "An empty set should have no nearest point.";
+
+        // complete tree shapes
+        assert leftSize(1) == 0;
+        assert leftSize(2) == 1;
+        assert leftSize(3) == 1;
+        assert leftSize(4) == 2;
+        assert leftSize(6) == 3;
+        assert leftSize(7) == 3;
+
+        Point2D point1x1 = new Point2D(0.1, 0.1);
+        Point2D point2x2 = new Point2D(0.2, 0.2);
+        Point2D point3x3 = new Point2D(0.3, 0.3);
+        Point2D point4x4 = new Point2D(0.4, 0.4);
+        Point2D point5x5 = new Point2D(0.5, 0.5);
+        ImplicitKdTree tree = new ImplicitKdTree(
+                new Point2D[] { point5x5, point1x1, point4x4, point2x2, point3x3, point1x1 });
+        assert tree.size() == 5;
+        assert !tree.isEmpty();
+        assert tree.contains(point3x3);
+        assert !tree.contains(new Point2D(0.3, 0.1));
+
+        assert tree.nearest(new Point2D(0, 0)).equals(point1x1);
+        assert tree.nearest(new Point2D(0.25, 0.26)).equals(point3x3);
+        assert tree.nearest(new Point2D(0.4125, 0.5125)).equals(point5x5);
+
+        Iterable<Point2D> pointsInRect = tree.range(new RectHV(0.1, 0.2, 0.2, 0.3));
+        for (Point2D p : pointsInRect) {
+            assert p.equals(point2x2) : "This rectangle only contains one of the points.";
+        }
+
+        // ties on the splitting coordinates
+        Point2D[] ties = new Point2D[400];
+        for (int i = 0; i < ties.length; i++) {
+            ties[i] = new Point2D(StdRandom.uniformInt(5), StdRandom.uniformInt(5));
+        }
+        tree = new ImplicitKdTree(ties);
+        for (Point2D p : ties) {
+            assert tree.contains(p);
+        }
+        assert count(tree.range(new RectHV(1, 1, 3, 3))) == 9;
+
+        // the same answers as a brute force search
+        int n = 20000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        PointSET pointSet = new PointSET();
+        for (int i = 0; i < n; i++) {
+            xs[i] = StdRandom.uniformDouble(-10, 10);
+            ys[i] = StdRandom.uniformDouble(-10, 10);
+            pointSet.insert(new Point2D(xs[i], ys[i]));
+        }
+        tree = new ImplicitKdTree(xs, ys);
+        assert tree.size() == pointSet.size();
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(-11, 11), StdRandom.uniformDouble(-11, 11));
+            assert query.distanceSquaredTo(tree.nearest(query)) == query.distanceSquaredTo(pointSet.nearest(query));
+            assert tree.contains(new Point2D(xs[i], ys[i]));
+
+            double x = StdRandom.uniformDouble(-10, 9);
+            double y = StdRandom.uniformDouble(-10, 9);
+            RectHV rect = new RectHV(x, y, x + 1, y + 1);
+            assert count(tree.range(rect)) == count(pointSet.range(rect));
+        }
+
+        // a saved and mapped tree answers the same as the tree it was saved from
+        Path file = Files.createTempFile("ImplicitKdTree", ".kdt");
+        try {
+            tree.write(file);
+            assert Files.size(file) == HEADER_BYTES + Double.BYTES * (BOUNDS + 2L * tree.size());
+            ImplicitKdTree mapped = load(file);
+            assert mapped.size() == tree.size();
+            for (int i = 0; i < 200; i++) {
+                Point2D query = new Point2D(StdRandom.uniformDouble(-11, 11), StdRandom.uniformDouble(-11, 11));
+                assert mapped.nearest(query).equals(tree.nearest(query));
+                assert mapped.contains(new Point2D(xs[i], ys[i]));
+
+                double x = StdRandom.uniformDouble(-10, 9);
+                double y = StdRandom.uniformDouble(-10, 9);
+                RectHV rect = new RectHV(x, y, x + 1, y + 1);
+                assert count(mapped.range(rect)) == count(tree.range(rect));
+            }
+
+            empty.write(file);
+            assert load(file).isEmpty();
+
+            Files.write(file, new byte[] { 1, 2, 3 });
+            thrown = false;
+            try {
+                load(file);
+            } catch (IOException e) {
+                thrown = true;
+            }
+            assert thrown : "A file not saved by write() should not load.";
+        } finally {
+            Files.delete(file);
+        }
+
+        if (args.length > 0) {
+            benchmark(Integer.parseInt(args[0]));
+        }
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D p : points) {
+            count++;
+        }
+        return count;
+    }
+
+    private static void benchmark(int n) throws IOException {
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = StdRandom.uniformDouble();
+            ys[i] = StdRandom.uniformDouble();
+        }
+        Stopwatch stopwatch = new Stopwatch();
+        KdTree kdTree = new KdTree(xs, ys, true);
+        StdOut.printf("KdTree built in %.3f s%n", stopwatch.elapsedTime());
+        stopwatch = new Stopwatch();
+        ImplicitKdTree implicit = new ImplicitKdTree(xs, ys);
+        StdOut.printf("ImplicitKdTree built in %.3f s%n", stopwatch.elapsedTime());
+
+        Path file = Files.createTempFile("ImplicitKdTree", ".kdt");
+        try {
+            implicit.write(file);
+            stopwatch = new Stopwatch();
+            ImplicitKdTree mapped = load(file);
+            StdOut.printf("ImplicitKdTree of %d MB loaded in %.3f s%n", Files.size(file) >> 20, stopwatch.elapsedTime());
+
+            Point2D[] queries = new Point2D[1000000];
+            for (int i = 0; i < queries.length; i++) {
+                queries[i] = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+            }
+
+            for (int round = 0; round < 3; round++) {
+                StdOut.printf("%d nearest queries on %d points: KdTree %.3f s, ImplicitKdTree %.3f s, mapped %.3f s%n",
+                        queries.length, n, time(kdTree::nearest, queries), time(implicit::nearest, queries),
+                        time(mapped::nearest, queries));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    // seconds to find the nearest point to each query
+    private static double time(Function<Point2D, Point2D> nearest, Point2D[] queries) {
+        Stopwatch stopwatch = new Stopwatch();
+        for (Point2D query : queries) {
+            nearest.apply(query);
+        }
+        return stopwatch.elapsedTime();
+    }
+}
@@ -1,20 +1,57 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.ToDoubleFunction;
+
 import edu.princeton.cs.algs4.Point2D;
 import edu.princeton.cs.algs4.RectHV;
 import edu.princeton.cs.algs4.Stack;
+import edu.princeton.cs.algs4.StdRandom;
 
 public class KdTree {
     private static final boolean VERTICAL = true;
     private static final boolean HORIZONTAL = false;
+    private static final int PARALLEL_BUILD_CUTOFF = 1 << 13; // smaller subtrees are built sequentially
+    private static final double ALPHA = 0.7; // no subtree may hold more than this share of its parent's nodes
+    private static final int QUERIES_PER_TASK = 256; // smallest batch of queries given to one task
+    private static final ToDoubleFunction<Point2D> X_COORDINATE = Point2D::x;
+    private static final ToDoubleFunction<Point2D> Y_COORDINATE = Point2D::y;
+    private static final ThreadLocal<QueryStack<Node>> QUERY_STACKS = ThreadLocal
+            .withInitial(() -> new QueryStack<>(4));
+
+    // set with -DKdTree.instrument=true; when false the JIT removes the
+    // instrumentation from nearest() and range() altogether
+    private static final boolean INSTRUMENTED = Boolean.getBoolean("KdTree.instrument");
+    private static final ThreadLocal<QueryStatistics> LAST_QUERY = new ThreadLocal<>();
 
     private int size;
     private Node root;
 
+    // bounding box of every point inserted, the rectangle of the root; it does
+    // not shrink on delete, which only makes it less tight
+    private double minX = Double.POSITIVE_INFINITY;
+    private double minY = Double.POSITIVE_INFINITY;
+    private double maxX = Double.NEGATIVE_INFINITY;
+    private double maxY = Double.NEGATIVE_INFINITY;
+
+    private final Totals totals = INSTRUMENTED ? new Totals() : null;
+
     private static class Node {
 
         private Point2D point; // the point
         private Node left; // the left/bottom subtree
         private Node right; // the right/top subtree
         private boolean orientation; // true = VERTICAL (x-coord), false = HORIZONTAL (y-coord)
+        private boolean deleted; // the point was deleted, but the node still splits its subtree
+        private int count = 1; // nodes in the subtree, deleted ones included
+        private int deletedCount; // deleted nodes in the subtree
 
         public Node(Point2D p) {
             point = p;
@@ -22,8 +59,9 @@ public class KdTree {
     }
 
     /**
-     * Represents a set of points in the unit square (all points have x- and
-     * y-coordinates between 0 and 1).
+     * Represents a set of points anywhere in the plane. The tree keeps the
+     * bounding box of its points as the rectangle of the root, so points need
+     * not be scaled to the unit square.
      * 
      */
     public KdTree() {
@@ -31,6 +69,211 @@ public class KdTree {
         root = null;
     }
 
+    /**
+     * Represents the given points as a perfectly balanced tree, so that nearest
+     * and range take O(log n) time to reach any point regardless of the order of
+     * the points. Each subtree's root is the median of its points along the
+     * subtree's axis, found by quickselect, which builds the tree in O(n log n).
+     * 
+     * @param points the points in the set; equal points are added once.
+     * @throws IllegalArgumentException when points is null or any point is null.
+     */
+    public KdTree(Point2D[] points) {
+        this(points, false);
+    }
+
+    /**
+     * Represents the given points as a perfectly balanced tree, optionally
+     * building the subtrees in parallel.
+     * 
+     * @param points   the points in the set; equal points are added once.
+     * @param parallel true to build large subtrees across all cores of the common
+     *                 fork-join pool, otherwise false.
+     * @throws IllegalArgumentException when points is null or any point is null.
+     */
+    public KdTree(Point2D[] points, boolean parallel) {
+        if (points == null) {
+            throw new IllegalArgumentException("Points must not be null.");
+        }
+        for (Point2D p : points) {
+            throwIfNull(p);
+        }
+
+        Point2D[] copy = Arrays.copyOf(points, points.length);
+        size = removeDuplicates(copy);
+        for (int i = 0; i < size; i++) {
+            extendBounds(copy[i]);
+        }
+        if (parallel) {
+            root = ForkJoinPool.commonPool().invoke(new Build(copy, 0, size, VERTICAL));
+        } else {
+            root = build(copy, 0, size, VERTICAL);
+        }
+    }
+
+    /**
+     * Represents the points (xs[i], ys[i]) as a perfectly balanced tree.
+     * 
+     * @param xs       the x-coordinates of the points.
+     * @param ys       the y-coordinates of the points.
+     * @param parallel true to build large subtrees across all cores of the common
+     *                 fork-join pool, otherwise false.
+     * @throws IllegalArgumentException when xs or ys is null, or they differ in
+     *                                  length.
+     */
+    public KdTree(double[] xs, double[] ys, boolean parallel) {
+        this(toPoints(xs, ys), parallel);
+    }
+
+    private static Point2D[] toPoints(double[] xs, double[] ys) {
+        if (xs == null || ys == null) {
+            throw new IllegalArgumentException("Coordinates must not be null.");
+        }
+        if (xs.length != ys.length) {
+            throw new IllegalArgumentException("There must be as many x-coordinates as y-coordinates.");
+        }
+
+        Point2D[] points = new Point2D[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            points[i] = new Point2D(xs[i], ys[i]);
+        }
+        return points;
+    }
+
+    // sorts the points and moves one of each distinct point to the front,
+    // returning the number of distinct points
+    static int removeDuplicates(Point2D[] points) {
+        if (points.length == 0) {
+            return 0;
+        }
+
+        Arrays.sort(points);
+        int distinct = 1;
+        for (int i = 1; i < points.length; i++) {
+            if (!points[i].equals(points[distinct - 1])) {
+                points[distinct++] = points[i];
+            }
+        }
+        return distinct;
+    }
+
+    // builds a balanced subtree of points[lo, hi)
+    private static Node build(Point2D[] points, int lo, int hi, boolean orientation) {
+        if (lo >= hi) {
+            return null;
+        }
+
+        int split = split(points, lo, hi, orientation);
+        Node node = new Node(points[split]);
+        node.orientation = orientation;
+        node.left = build(points, lo, split, !orientation);
+        node.right = build(points, split + 1, hi, !orientation);
+        node.count = hi - lo;
+        return node;
+    }
+
+    /**
+     * Builds a balanced subtree, forking the left half while building the right
+     * half until the subtrees are small enough to build sequentially.
+     */
+    private static class Build extends RecursiveTask<Node> {
+        private static final long serialVersionUID = 1L;
+
+        private final Point2D[] points;
+        private final int lo;
+        private final int hi;
+        private final boolean orientation;
+
+        Build(Point2D[] points, int lo, int hi, boolean orientation) {
+            this.points = points;
+            this.lo = lo;
+            this.hi = hi;
+            this.orientation = orientation;
+        }
+
+        @Override
+        protected Node compute() {
+            if (hi - lo <= PARALLEL_BUILD_CUTOFF) {
+                return build(points, lo, hi, orientation);
+            }
+
+            int split = split(points, lo, hi, orientation);
+            Node node = new Node(points[split]);
+            node.orientation = orientation;
+            Build left = new Build(points, lo, split, !orientation);
+            left.fork();
+            node.right = new Build(points, split + 1, hi, !orientation).compute();
+            node.left = left.join();
+            node.count = hi - lo;
+            return node;
+        }
+    }
+
+    // Partitions points[lo, hi) around the median along the orientation's axis
+    // and returns the median's index. Points left of the median have a smaller
+    // coordinate and the rest are to the right, because insert() and contains()
+    // follow the right subtree on equal coordinates.
+    static int split(Point2D[] points, int lo, int hi, boolean orientation) {
+        int mid = lo + (hi - lo) / 2;
+        select(points, lo, hi - 1, mid, orientation);
+
+        double median = coordinate(points[mid], orientation);
+        int split = lo;
+        for (int i = lo; i < mid; i++) {
+            if (coordinate(points[i], orientation) < median) {
+                swap(points, split++, i);
+            }
+        }
+        swap(points, split, mid);
+        return split;
+    }
+
+    // quickselect along the orientation's axis
+    static void select(Point2D[] points, int lo, int hi, int k, boolean orientation) {
+        select(points, lo, hi, k, orientation == VERTICAL ? X_COORDINATE : Y_COORDINATE);
+    }
+
+    // quickselect with 3-way partitioning: afterwards items[k] has rank k by the
+    // coordinate, items[lo, k) are no greater and items(k, hi] are no smaller;
+    // the parallel build selects from every worker, so each thread draws its
+    // pivots from its own random source rather than StdRandom's shared one
+    static <T> void select(T[] items, int lo, int hi, int k, ToDoubleFunction<? super T> coordinate) {
+        while (lo < hi) {
+            double pivot = coordinate.applyAsDouble(items[ThreadLocalRandom.current().nextInt(lo, hi + 1)]);
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt) {
+                double value = coordinate.applyAsDouble(items[i]);
+                if (value < pivot) {
+                    swap(items, lt++, i++);
+                } else if (value > pivot) {
+                    swap(items, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+
+            if (k < lt) {
+                hi = lt - 1;
+            } else if (k > gt) {
+                lo = gt + 1;
+            } else {
+                return; // items[k] equals the pivot
+            }
+        }
+    }
+
+    private static double coordinate(Point2D point, boolean orientation) {
+        return orientation == VERTICAL ? point.x() : point.y();
+    }
+
+    private static <T> void swap(T[] items, int i, int j) {
+        T temp = items[i];
+        items[i] = items[j];
+        items[j] = temp;
+    }
+
     /**
      * 
      * Is the set empty.
@@ -38,7 +281,7 @@ public class KdTree {
      * @return true if the set empty, otherwise false.
      */
     public boolean isEmpty() {
-        return root == null;
+        return size == 0;
     }
 
     /**
@@ -53,46 +296,179 @@ public class KdTree {
 
     /**
      * 
-     * Add the point to the set (if it is not already in the set).
+     * Add the point to the set (if it is not already in the set). When the new
+     * leaf is deeper than log(n) / log(1 / ALPHA), the highest subtree on its
+     * path that is out of balance is rebuilt, so the tree stays O(log n) deep
+     * for any order of insertions, in O(log n) amortized time.
      * 
      * @param p point to add.
      * @throws IllegalArgumentException when p is null.
      */
     public void insert(Point2D p) {
         throwIfNull(p);
-        root = insert(root, p, VERTICAL);
+
+        Node found = find(p);
+        if (found != null) {
+            if (found.deleted) { // revive the point
+                found.deleted = false;
+                found.deletedCount--;
+                adjustPath(p, found, 0, -1);
+                size++;
+            }
+            return;
+        }
+
+        Node leaf = new Node(p);
+        size++;
+        extendBounds(p);
+        if (root == null) {
+            leaf.orientation = VERTICAL;
+            root = leaf;
+            return;
+        }
+
+        int depth = 0;
+        Node parent = null;
+        Node node = root;
+        while (node != null) {
+            node.count++;
+            parent = node;
+            node = goesRight(node, p) ? node.right : node.left;
+            depth++;
+        }
+        leaf.orientation = !parent.orientation;
+        if (goesRight(parent, p))
+            parent.right = leaf;
+        else
+            parent.left = leaf;
+
+        if (depth > Math.log(root.count) / Math.log(1 / ALPHA)) {
+            rebuildScapegoat(p);
+        }
     }
 
-    private Node insert(Node node, Point2D point, boolean orientation) {
+    /**
+     * 
+     * Remove the point from the set (if it is in the set). The node is kept as a
+     * tombstone so the tree keeps its shape; once more than half of the nodes of
+     * a subtree on its path are tombstones, the highest such subtree is rebuilt
+     * from its remaining points in O(log n) amortized time.
+     * 
+     * @param p point to remove.
+     * @throws IllegalArgumentException when p is null.
+     */
+    public void delete(Point2D p) {
+        throwIfNull(p);
+
+        Node found = find(p);
+        if (found == null || found.deleted) {
+            return;
+        }
+        found.deleted = true;
+        found.deletedCount++;
+        adjustPath(p, found, 0, 1);
+        size--;
+
+        Node parent = null;
+        Node node = root;
+        while (node != found) {
+            if (2 * node.deletedCount > node.count) {
+                break;
+            }
+            parent = node;
+            node = goesRight(node, p) ? node.right : node.left;
+        }
+        if (2 * node.deletedCount > node.count) {
+            rebuild(parent, node);
+        }
+    }
+
+    private void extendBounds(Point2D p) {
+        minX = Math.min(minX, p.x());
+        minY = Math.min(minY, p.y());
+        maxX = Math.max(maxX, p.x());
+        maxY = Math.max(maxY, p.y());
+    }
+
+    // rebuilds the highest subtree on the path to the point where one child
+    // holds more than ALPHA of the subtree's nodes; one exists whenever the
+    // path is deeper than log(n) / log(1 / ALPHA)
+    private void rebuildScapegoat(Point2D point) {
+        Node parent = null;
+        Node node = root;
+        while (node != null && !node.point.equals(point)) {
+            int heavier = Math.max(count(node.left), count(node.right));
+            if (heavier > ALPHA * node.count) {
+                rebuild(parent, node);
+                return;
+            }
+            parent = node;
+            node = goesRight(node, point) ? node.right : node.left;
+        }
+    }
+
+    // replaces the subtree of parent at node by a balanced subtree of its
+    // remaining points, split along the same axis so the parent stays valid
+    private void rebuild(Node parent, Node node) {
+        int removed = node.deletedCount;
+        adjustPath(node.point, node, -removed, -removed);
+
+        Point2D[] points = new Point2D[node.count - node.deletedCount];
+        collect(node, points, 0);
+        Node rebuilt = build(points, 0, points.length, node.orientation);
+        if (parent == null)
+            root = rebuilt;
+        else if (parent.left == node)
+            parent.left = rebuilt;
+        else
+            parent.right = rebuilt;
+    }
+
+    // copies the points of the subtree that are not deleted into points from
+    // index i, returning the index after the last one copied
+    private static int collect(Node node, Point2D[] points, int i) {
         if (node == null) {
-            Node temp = new Node(point);
-            temp.orientation = orientation;
-            size++;
-            return temp;
+            return i;
         }
 
-        double pointX = point.x();
-        double pointY = point.y();
-        double nodeX = node.point.x();
-        double nodeY = node.point.y();
-        if (node.orientation == VERTICAL) {
-            if (pointX < nodeX)
-                node.left = insert(node.left, point, !node.orientation);
-            else if (pointX > nodeX)
-                node.right = insert(node.right, point, !node.orientation);
-            else if (pointY != nodeY)
-                node.right = insert(node.right, point, !node.orientation);
-            // do nothing with equal points
-        } else { // HORIZONTAL
-            if (pointY < nodeY)
-                node.left = insert(node.left, point, !node.orientation);
-            else if (pointY > nodeY)
-                node.right = insert(node.right, point, !node.orientation);
-            else if (pointX != nodeX)
-                node.right = insert(node.right, point, !node.orientation);
-            // do nothing with equal points
+        i = collect(node.left, points, i);
+        if (!node.deleted)
+            points[i++] = node.point;
+        return collect(node.right, points, i);
+    }
+
+    // adds the deltas to the counts of the nodes on the path to the point,
+    // stopping before end
+    private void adjustPath(Point2D point, Node end, int countDelta, int deletedDelta) {
+        Node node = root;
+        while (node != end) {
+            node.count += countDelta;
+            node.deletedCount += deletedDelta;
+            node = goesRight(node, point) ? node.right : node.left;
         }
-        return node;
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    // true when the point belongs in the right subtree of the node, which holds
+    // the points with an equal or larger coordinate along the node's axis
+    private static boolean goesRight(Node node, Point2D point) {
+        if (node.orientation == VERTICAL)
+            return point.x() >= node.point.x();
+        return point.y() >= node.point.y(); // HORIZONTAL
+    }
+
+    // the node holding the point, deleted or not; null when there is none
+    private Node find(Point2D p) {
+        Node node = root;
+        while (node != null) {
+            if (node.point.equals(p))
+                return node;
+            node = goesRight(node, p) ? node.right : node.left;
+        }
+        return null;
     }
 
     /**
@@ -106,32 +482,8 @@ public class KdTree {
     public boolean contains(Point2D p) {
         throwIfNull(p);
 
-        Node node = root;
-        while (node != null) {
-            if (node.point.equals(p))
-                return true;
-
-            double pointX = p.x();
-            double pointY = p.y();
-            double nodeX = node.point.x();
-            double nodeY = node.point.y();
-            if (node.orientation == VERTICAL) {
-                if (pointX < nodeX)
-                    node = node.left;
-                else if (pointX > nodeX)
-                    node = node.right;
-                else if (pointY != nodeY)
-                    node = node.right;
-            } else { // HORIZONTAL
-                if (pointY < nodeY)
-                    node = node.left;
-                else if (pointY > nodeY)
-                    node = node.right;
-                else if (pointX != nodeX)
-                    node = node.right;
-            }
-        }
-        return false;
+        Node node = find(p);
+        return node != null && !node.deleted;
     }
 
     /**
@@ -157,42 +509,181 @@ public class KdTree {
         }
 
         Stack<Point2D> pointsInRect = new Stack<>();
-        range(root, new RectHV(0, 0, 1, 1), rect, pointsInRect);
+        if (size == 0) {
+            return pointsInRect;
+        }
+
+        double queryXmin = rect.xmin();
+        double queryYmin = rect.ymin();
+        double queryXmax = rect.xmax();
+        double queryYmax = rect.ymax();
+
+        int visited = 0;
+        int pruned = 0;
+        int maxDepth = 0;
+
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(root, 0, minX, minY, maxX, maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            int depth = INSTRUMENTED ? stack.keys[top] : 0;
+            if (xmax < queryXmin || xmin > queryXmax || ymax < queryYmin || ymin > queryYmax) {
+                if (INSTRUMENTED)
+                    pruned++;
+                continue; // the node's rectangle does not intersect the query
+            }
+            if (INSTRUMENTED) {
+                visited++;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            if (!node.deleted && queryXmin <= nodeX && nodeX <= queryXmax && queryYmin <= nodeY
+                    && nodeY <= queryYmax)
+                pointsInRect.push(node.point);
+
+            // push left first so the right subtree is searched first
+            if (node.orientation == VERTICAL) {
+                if (node.left != null)
+                    stack.push(node.left, depth + 1, xmin, ymin, nodeX, ymax);
+                if (node.right != null)
+                    stack.push(node.right, depth + 1, nodeX, ymin, xmax, ymax);
+            } else { // HORIZONTAL
+                if (node.left != null)
+                    stack.push(node.left, depth + 1, xmin, ymin, xmax, nodeY);
+                if (node.right != null)
+                    stack.push(node.right, depth + 1, xmin, nodeY, xmax, ymax);
+            }
+        }
+        if (INSTRUMENTED)
+            record(visited, pruned, maxDepth);
         return pointsInRect;
     }
 
-    private void range(Node node, RectHV nodeRect, RectHV queryRect, Stack<Point2D> pointsInRect) {
-        if (node == null)
-            return;
-        if (!nodeRect.intersects(queryRect))
+    /**
+     * 
+     * Passes each point inside the rectangle (or on the boundary) to the
+     * visitor, without collecting the points. The search keeps its own stack
+     * rather than the thread's pooled one, since the visitor runs in the middle
+     * of it and may query this or any other tree.
+     * 
+     * @param rect    rectangle to check what points are in boundary.
+     * @param visitor called once with each point in or on the boundary of the
+     *                rectangle; it may query this tree but must not insert
+     *                into it or delete from it.
+     * @throws IllegalArgumentException when rect or visitor is null.
+     */
+    public void range(RectHV rect, Consumer<Point2D> visitor) {
+        if (rect == null) {
+            throw new IllegalArgumentException("Rectangle must not be null.");
+        }
+        if (visitor == null) {
+            throw new IllegalArgumentException("Visitor must not be null.");
+        }
+        if (size == 0) {
             return;
+        }
 
-        if (queryRect.contains(node.point))
-            pointsInRect.push(node.point);
+        double queryXmin = rect.xmin();
+        double queryYmin = rect.ymin();
+        double queryXmax = rect.xmax();
+        double queryYmax = rect.ymax();
 
-        double xmin, ymin, xmax, ymax;
-        if (node.orientation == VERTICAL) {
-            ymin = nodeRect.ymin();
-            ymax = nodeRect.ymax();
+        QueryStack<Node> stack = new QueryStack<>(4);
+        stack.push(root, 0, minX, minY, maxX, maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            if (xmax < queryXmin || xmin > queryXmax || ymax < queryYmin || ymin > queryYmax) {
+                continue; // the node's rectangle does not intersect the query
+            }
 
-            xmin = node.point.x();
-            xmax = nodeRect.xmax();
-            range(node.right, new RectHV(xmin, ymin, xmax, ymax), queryRect, pointsInRect);
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            if (!node.deleted && queryXmin <= nodeX && nodeX <= queryXmax && queryYmin <= nodeY
+                    && nodeY <= queryYmax)
+                visitor.accept(node.point);
 
-            xmin = nodeRect.xmin();
-            xmax = node.point.x();
-            range(node.left, new RectHV(xmin, ymin, xmax, ymax), queryRect, pointsInRect);
-        } else { // HORIZONTAL
-            xmin = nodeRect.xmin();
-            xmax = nodeRect.xmax();
+            pushChildren(stack, node, xmin, ymin, xmax, ymax);
+        }
+    }
 
-            ymin = node.point.y();
-            ymax = nodeRect.ymax();
-            range(node.right, new RectHV(xmin, ymin, xmax, ymax), queryRect, pointsInRect);
+    /**
+     * 
+     * Number of points inside the rectangle (or on the boundary). A subtree whose
+     * rectangle lies inside the query is counted from its node's counts without
+     * being searched, so only the subtrees crossing the query's boundary are
+     * visited.
+     * 
+     * @param rect rectangle to count the points in.
+     * @return number of points in or on the boundary of the rectangle.
+     * @throws IllegalArgumentException when rect is null.
+     */
+    public int rangeCount(RectHV rect) {
+        if (rect == null) {
+            throw new IllegalArgumentException("Rectangle must not be null.");
+        }
+        if (size == 0) {
+            return 0;
+        }
+
+        double queryXmin = rect.xmin();
+        double queryYmin = rect.ymin();
+        double queryXmax = rect.xmax();
+        double queryYmax = rect.ymax();
+
+        int count = 0;
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(root, 0, minX, minY, maxX, maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            if (xmax < queryXmin || xmin > queryXmax || ymax < queryYmin || ymin > queryYmax) {
+                continue; // the node's rectangle does not intersect the query
+            }
+            if (queryXmin <= xmin && xmax <= queryXmax && queryYmin <= ymin && ymax <= queryYmax) {
+                count += node.count - node.deletedCount; // the whole subtree is inside the query
+                continue;
+            }
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            if (!node.deleted && queryXmin <= nodeX && nodeX <= queryXmax && queryYmin <= nodeY
+                    && nodeY <= queryYmax)
+                count++;
 
-            ymin = nodeRect.ymin();
-            ymax = node.point.y();
-            range(node.left, new RectHV(xmin, ymin, xmax, ymax), queryRect, pointsInRect);
+            pushChildren(stack, node, xmin, ymin, xmax, ymax);
+        }
+        return count;
+    }
+
+    // pushes the children of the node with their rectangles
+    private static void pushChildren(QueryStack<Node> stack, Node node, double xmin, double ymin, double xmax,
+            double ymax) {
+        if (node.orientation == VERTICAL) {
+            if (node.left != null)
+                stack.push(node.left, 0, xmin, ymin, node.point.x(), ymax);
+            if (node.right != null)
+                stack.push(node.right, 0, node.point.x(), ymin, xmax, ymax);
+        } else { // HORIZONTAL
+            if (node.left != null)
+                stack.push(node.left, 0, xmin, ymin, xmax, node.point.y());
+            if (node.right != null)
+                stack.push(node.right, 0, xmin, node.point.y(), xmax, ymax);
         }
     }
 
@@ -207,63 +698,718 @@ public class KdTree {
     public Point2D nearest(Point2D p) {
         throwIfNull(p);
 
-        if (root == null)
+        if (size == 0)
             throw new IllegalArgumentException("No nearest point in as not points.");
 
-        Point2D nearest = root.point;
-        nearest =  nearest(root, new RectHV(0, 0, 1, 1), p, nearest);
+        double queryX = p.x();
+        double queryY = p.y();
+        Point2D nearest = null;
+        double distanceToNearestPoint = Double.POSITIVE_INFINITY;
+        int visited = 0;
+        int pruned = 0;
+        int maxDepth = 0;
+
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(root, 0, minX, minY, maxX, maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            int depth = INSTRUMENTED ? stack.keys[top] : 0;
+            if (distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) >= distanceToNearestPoint) {
+                if (INSTRUMENTED)
+                    pruned++;
+                continue; // a nearer point was found after this node was pushed
+            }
+            if (INSTRUMENTED) {
+                visited++;
+                maxDepth = Math.max(maxDepth, depth);
+            }
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            double distance = (nodeX - queryX) * (nodeX - queryX) + (nodeY - queryY) * (nodeY - queryY);
+            if (distance < distanceToNearestPoint && !node.deleted) {
+                nearest = node.point;
+                distanceToNearestPoint = distance;
+                if (distance == 0) {
+                    stack.clear();
+                    break; // the query point itself
+                }
+            }
+
+            // push the far child first so the child on the query point's side is
+            // searched first and shrinks the distance for pruning the far child
+            int children;
+            if (node.orientation == VERTICAL) {
+                if (queryX < nodeX) {
+                    children = pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY,
+                            distanceToNearestPoint, depth + 1)
+                            + pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY,
+                                    distanceToNearestPoint, depth + 1);
+                } else {
+                    children = pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY,
+                            distanceToNearestPoint, depth + 1)
+                            + pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY,
+                                    distanceToNearestPoint, depth + 1);
+                }
+            } else { // HORIZONTAL
+                if (queryY < nodeY) {
+                    children = pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY,
+                            distanceToNearestPoint, depth + 1)
+                            + pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY,
+                                    distanceToNearestPoint, depth + 1);
+                } else {
+                    children = pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY,
+                            distanceToNearestPoint, depth + 1)
+                            + pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY,
+                                    distanceToNearestPoint, depth + 1);
+                }
+            }
+            if (INSTRUMENTED)
+                pruned += (node.left == null ? 0 : 1) + (node.right == null ? 0 : 1) - children;
+        }
+        if (INSTRUMENTED)
+            record(visited, pruned, maxDepth);
         return nearest;
     }
 
-    private Point2D nearest(Node node, RectHV nodeRect, Point2D queryPoint, Point2D nearest) {
-        if (node == null)
+    /**
+     * 
+     * The k points in the set nearest to point p. The candidates are kept in a
+     * max-heap of at most k points, and a subtree is searched only while its
+     * rectangle is nearer than the k-th nearest point found so far.
+     * 
+     * @param p point to find the nearest neighbors of.
+     * @param k number of neighbors.
+     * @return the k nearest points, nearest first; all of the points when the
+     *         set has fewer than k.
+     * @throws IllegalArgumentException when p is null or k is not positive.
+     */
+    public Iterable<Point2D> nearest(Point2D p, int k) {
+        throwIfNull(p);
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of neighbors must be positive.");
+        }
+
+        Stack<Point2D> nearest = new Stack<>();
+        if (size == 0) {
             return nearest;
+        }
+
+        double queryX = p.x();
+        double queryY = p.y();
+        NearestHeap<Point2D> heap = new NearestHeap<>(Math.min(k, size));
 
-        if (node.point.equals(queryPoint)) {
-            return node.point;
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(root, 0, minX, minY, maxX, maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            if (distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) >= heap.bound()) {
+                continue; // k nearer points were found after this node was pushed
+            }
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            if (!node.deleted)
+                heap.offer(node.point, 0, (nodeX - queryX) * (nodeX - queryX) + (nodeY - queryY) * (nodeY - queryY));
+
+            // as in nearest(), search the child on the query point's side first
+            double bound = heap.bound();
+            if (node.orientation == VERTICAL) {
+                if (queryX < nodeX) {
+                    pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY, bound);
+                    pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY, bound);
+                } else {
+                    pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY, bound);
+                    pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY, bound);
+                }
+            } else { // HORIZONTAL
+                if (queryY < nodeY) {
+                    pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY, bound);
+                    pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY, bound);
+                } else {
+                    pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY, bound);
+                    pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY, bound);
+                }
+            }
         }
 
-        if (queryPoint.distanceSquaredTo(node.point) < queryPoint.distanceSquaredTo(nearest)) {
-            nearest = node.point;
+        // the heap gives the farthest point first, so the stack gives the nearest first
+        while (!heap.isEmpty()) {
+            nearest.push(heap.maxItem());
+            heap.removeMax();
         }
+        return nearest;
+    }
 
-        double xmin, ymin, xmax, ymax;
-        double distanceToNearestPoint = queryPoint.distanceSquaredTo(nearest);
-        if (node.orientation == VERTICAL) {
-            ymin = nodeRect.ymin();
-            ymax = nodeRect.ymax();
-
-            xmin = node.point.x();
-            xmax = nodeRect.xmax();
-            RectHV rightRect = new RectHV(xmin, ymin, xmax, ymax);
-            if (rightRect.distanceSquaredTo(queryPoint) < distanceToNearestPoint)
-                nearest = nearest(node.right, rightRect, queryPoint, nearest);
-
-            xmin = nodeRect.xmin();
-            xmax = node.point.x();
-            RectHV leftRect = new RectHV(xmin, ymin, xmax, ymax);
-            if (leftRect.distanceSquaredTo(queryPoint) < distanceToNearestPoint)
-                nearest = nearest(node.left, leftRect, queryPoint, nearest);
-        } else { // HORIZONTAL
-            xmin = nodeRect.xmin();
-            xmax = nodeRect.xmax();
+    /**
+     * 
+     * All points within distance r of point p (or at distance r).
+     * 
+     * @param p point at the center of the circle.
+     * @param r radius of the circle.
+     * @return all points in or on the boundary of the circle.
+     * @throws IllegalArgumentException when p is null or r is negative or NaN.
+     */
+    public Iterable<Point2D> withinRadius(Point2D p, double r) {
+        throwIfNull(p);
+        if (!(r >= 0)) {
+            throw new IllegalArgumentException("Radius must not be negative.");
+        }
+
+        Stack<Point2D> pointsInCircle = new Stack<>();
+        if (size == 0) {
+            return pointsInCircle;
+        }
+
+        double queryX = p.x();
+        double queryY = p.y();
+        double radiusSquared = r * r;
+
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(root, 0, minX, minY, maxX, maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            if (distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) > radiusSquared) {
+                continue; // the node's rectangle is outside the circle
+            }
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            if (!node.deleted
+                    && (nodeX - queryX) * (nodeX - queryX) + (nodeY - queryY) * (nodeY - queryY) <= radiusSquared)
+                pointsInCircle.push(node.point);
+
+            if (node.orientation == VERTICAL) {
+                if (node.left != null)
+                    stack.push(node.left, 0, xmin, ymin, nodeX, ymax);
+                if (node.right != null)
+                    stack.push(node.right, 0, nodeX, ymin, xmax, ymax);
+            } else { // HORIZONTAL
+                if (node.left != null)
+                    stack.push(node.left, 0, xmin, ymin, xmax, nodeY);
+                if (node.right != null)
+                    stack.push(node.right, 0, xmin, nodeY, xmax, ymax);
+            }
+        }
+        return pointsInCircle;
+    }
+
+    /**
+     * 
+     * An approximate nearest neighbor in the set to point p, which trades
+     * accuracy for fewer visited nodes. A subtree is skipped unless it could
+     * hold a point more than 1 + epsilon times nearer than the nearest found,
+     * so the answer is at most 1 + epsilon times as far as the nearest point;
+     * and the search stops after visiting maxNodes nodes (or, if those were all
+     * deleted, at the first point), which bounds its time but not its error.
+     * With epsilon 0 and no node limit the answer is exact.
+     * 
+     * @param p        point to check for its nearest neighbor.
+     * @param epsilon  allowed relative error in the distance.
+     * @param maxNodes most nodes to visit; Integer.MAX_VALUE for no limit.
+     * @return the point found and the number of nodes visited to find it.
+     * @throws IllegalArgumentException when p is null, the set is empty, epsilon
+     *                                  is negative or NaN, or maxNodes is not
+     *                                  positive.
+     */
+    public Neighbor nearest(Point2D p, double epsilon, int maxNodes) {
+        throwIfNull(p);
+        if (!(epsilon >= 0)) {
+            throw new IllegalArgumentException("Epsilon must not be negative.");
+        }
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("Number of nodes must be positive.");
+        }
+        if (size == 0)
+            throw new IllegalArgumentException("No nearest point in as not points.");
+
+        double queryX = p.x();
+        double queryY = p.y();
+        double factor = (1 + epsilon) * (1 + epsilon); // on squared distances
+        Point2D nearest = null;
+        double distanceToNearestPoint = Double.POSITIVE_INFINITY;
+        double pruningDistance = Double.POSITIVE_INFINITY; // distanceToNearestPoint / factor
+        int visited = 0;
 
-            ymin = node.point.y();
-            ymax = nodeRect.ymax();
-            RectHV rightRect = new RectHV(xmin, ymin, xmax, ymax);
-            if (rightRect.distanceSquaredTo(queryPoint) < distanceToNearestPoint)
-                nearest = nearest(node.right, rightRect, queryPoint, nearest);
+        QueryStack<Node> stack = QueryStack.take(QUERY_STACKS);
+        stack.push(root, 0, minX, minY, maxX, maxY);
+        while (stack.size > 0) {
+            Node node = stack.pop();
+            int top = stack.size;
+            double xmin = stack.bounds[4 * top];
+            double ymin = stack.bounds[4 * top + 1];
+            double xmax = stack.bounds[4 * top + 2];
+            double ymax = stack.bounds[4 * top + 3];
+            if (distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) >= pruningDistance) {
+                continue; // a near enough point was found after this node was pushed
+            }
+
+            // the limit only counts nodes whose point has been looked at
+            if (visited >= maxNodes && nearest != null) {
+                stack.clear();
+                break;
+            }
+            visited++;
+
+            double nodeX = node.point.x();
+            double nodeY = node.point.y();
+            double distance = (nodeX - queryX) * (nodeX - queryX) + (nodeY - queryY) * (nodeY - queryY);
+            if (distance < distanceToNearestPoint && !node.deleted) {
+                nearest = node.point;
+                distanceToNearestPoint = distance;
+                pruningDistance = distance / factor;
+                if (distance == 0) {
+                    stack.clear();
+                    break; // the query point itself
+                }
+            }
+
+            // as in nearest(), search the child on the query point's side first
+            if (node.orientation == VERTICAL) {
+                if (queryX < nodeX) {
+                    pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY, pruningDistance);
+                    pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY, pruningDistance);
+                } else {
+                    pushIfCloser(stack, node.left, xmin, ymin, nodeX, ymax, queryX, queryY, pruningDistance);
+                    pushIfCloser(stack, node.right, nodeX, ymin, xmax, ymax, queryX, queryY, pruningDistance);
+                }
+            } else { // HORIZONTAL
+                if (queryY < nodeY) {
+                    pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY, pruningDistance);
+                    pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY, pruningDistance);
+                } else {
+                    pushIfCloser(stack, node.left, xmin, ymin, xmax, nodeY, queryX, queryY, pruningDistance);
+                    pushIfCloser(stack, node.right, xmin, nodeY, xmax, ymax, queryX, queryY, pruningDistance);
+                }
+            }
+        }
+        return new Neighbor(nearest, visited);
+    }
+
+    /**
+     * The answer to an approximate nearest neighbor query.
+     */
+    public static class Neighbor {
+        private final Point2D point;
+        private final int nodesVisited;
+
+        private Neighbor(Point2D point, int nodesVisited) {
+            this.point = point;
+            this.nodesVisited = nodesVisited;
+        }
+
+        /**
+         * The point found.
+         * 
+         * @return the point found.
+         */
+        public Point2D point() {
+            return point;
+        }
+
+        /**
+         * Number of nodes whose points were compared to the query point.
+         * 
+         * @return number of nodes visited.
+         */
+        public int nodesVisited() {
+            return nodesVisited;
+        }
+    }
+
+    private static void pushIfCloser(QueryStack<Node> stack, Node node, double xmin, double ymin, double xmax,
+            double ymax, double queryX, double queryY, double distanceToNearestPoint) {
+        if (node != null && distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) < distanceToNearestPoint)
+            stack.push(node, 0, xmin, ymin, xmax, ymax);
+    }
 
-            ymin = nodeRect.ymin();
-            ymax = node.point.y();
-            RectHV leftRect = new RectHV(xmin, ymin, xmax, ymax);
-            if (leftRect.distanceSquaredTo(queryPoint) < distanceToNearestPoint)
-                nearest = nearest(node.left, leftRect, queryPoint, nearest);
+    // pushes the node at the given depth, returning 1 if it was pushed, else 0
+    private static int pushIfCloser(QueryStack<Node> stack, Node node, double xmin, double ymin, double xmax,
+            double ymax, double queryX, double queryY, double distanceToNearestPoint, int depth) {
+        if (node != null && distanceSquared(xmin, ymin, xmax, ymax, queryX, queryY) < distanceToNearestPoint) {
+            stack.push(node, depth, xmin, ymin, xmax, ymax);
+            return 1;
         }
+        return 0;
+    }
+
+    // squared distance from (x, y) to the rectangle, as RectHV.distanceSquaredTo()
+    static double distanceSquared(double xmin, double ymin, double xmax, double ymax, double x, double y) {
+        double dx = 0.0;
+        double dy = 0.0;
+        if (x < xmin)
+            dx = x - xmin;
+        else if (x > xmax)
+            dx = x - xmax;
+        if (y < ymin)
+            dy = y - ymin;
+        else if (y > ymax)
+            dy = y - ymax;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * 
+     * The nearest neighbor of each query point, searched in parallel across all
+     * cores of the common fork-join pool after sorting the queries along a
+     * Z-order curve. The tree must not be modified during the call.
+     * 
+     * @param queries points to find the nearest neighbors of.
+     * @return the nearest point to queries[i] at index i.
+     * @throws IllegalArgumentException when queries or any query is null, or the
+     *                                  set is empty and there are queries.
+     */
+    public Point2D[] nearestAll(Point2D[] queries) {
+        return nearestAll(queries, true);
+    }
+
+    /**
+     * 
+     * The nearest neighbor of each query point, searched in parallel across all
+     * cores of the common fork-join pool. Nearby queries visit the same nodes,
+     * so sorting them along a Z-order curve keeps those nodes in cache from one
+     * query to the next. The tree must not be modified during the call.
+     * 
+     * @param queries     points to find the nearest neighbors of.
+     * @param sortQueries true to search the queries in Z-order, otherwise false
+     *                    to search them in the given order.
+     * @return the nearest point to queries[i] at index i.
+     * @throws IllegalArgumentException when queries or any query is null, or the
+     *                                  set is empty and there are queries.
+     */
+    public Point2D[] nearestAll(Point2D[] queries, boolean sortQueries) {
+        if (queries == null) {
+            throw new IllegalArgumentException("Queries must not be null.");
+        }
+        double[] xs = new double[queries.length];
+        double[] ys = new double[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            throwIfNull(queries[i]);
+            xs[i] = queries[i].x();
+            ys[i] = queries[i].y();
+        }
+        if (size == 0 && queries.length > 0)
+            throw new IllegalArgumentException("No nearest point in as not points.");
+
+        Point2D[] nearest = new Point2D[queries.length];
+        runAll(queryOrder(xs, ys, sortQueries), i -> nearest[i] = nearest(queries[i]));
         return nearest;
     }
 
-    private void throwIfNull(Point2D p) {
+    /**
+     * 
+     * The points inside each rectangle, searched in parallel across all cores of
+     * the common fork-join pool after sorting the rectangles' centers along a
+     * Z-order curve. The tree must not be modified during the call.
+     * 
+     * @param rects rectangles to find the points in.
+     * @return the points in or on the boundary of rects[i] at index i.
+     * @throws IllegalArgumentException when rects or any rectangle is null.
+     */
+    public Iterable<Point2D>[] rangeAll(RectHV[] rects) {
+        return rangeAll(rects, true);
+    }
+
+    /**
+     * 
+     * The points inside each rectangle, searched in parallel across all cores of
+     * the common fork-join pool. The tree must not be modified during the call.
+     * 
+     * @param rects       rectangles to find the points in.
+     * @param sortQueries true to search the rectangles in Z-order of their
+     *                    centers, otherwise false to search them in the given
+     *                    order.
+     * @return the points in or on the boundary of rects[i] at index i.
+     * @throws IllegalArgumentException when rects or any rectangle is null.
+     */
+    public Iterable<Point2D>[] rangeAll(RectHV[] rects, boolean sortQueries) {
+        if (rects == null) {
+            throw new IllegalArgumentException("Rectangles must not be null.");
+        }
+        double[] xs = new double[rects.length];
+        double[] ys = new double[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            if (rects[i] == null) {
+                throw new IllegalArgumentException("Rectangle must not be null.");
+            }
+            xs[i] = (rects[i].xmin() + rects[i].xmax()) / 2;
+            ys[i] = (rects[i].ymin() + rects[i].ymax()) / 2;
+        }
+
+        @SuppressWarnings("unchecked")
+        Iterable<Point2D>[] pointsInRects = (Iterable<Point2D>[]) new Iterable<?>[rects.length];
+        runAll(queryOrder(xs, ys, sortQueries), i -> pointsInRects[i] = range(rects[i]));
+        return pointsInRects;
+    }
+
+    // indexes of the points (xs[i], ys[i]), in Z-order when sorted is true
+    private static int[] queryOrder(double[] xs, double[] ys, boolean sorted) {
+        int[] order = new int[xs.length];
+        if (!sorted) {
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            return order;
+        }
+
+        double xmin = Double.POSITIVE_INFINITY;
+        double ymin = Double.POSITIVE_INFINITY;
+        double xmax = Double.NEGATIVE_INFINITY;
+        double ymax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            xmin = Math.min(xmin, xs[i]);
+            ymin = Math.min(ymin, ys[i]);
+            xmax = Math.max(xmax, xs[i]);
+            ymax = Math.max(ymax, ys[i]);
+        }
+
+        // the Z-order of the point's cell in a 2^16 by 2^16 grid over the
+        // queries, above the index so that sorting the keys sorts the indexes
+        double xscale = xmax > xmin ? 65535 / (xmax - xmin) : 0;
+        double yscale = ymax > ymin ? 65535 / (ymax - ymin) : 0;
+        long[] keys = new long[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            long cell = spreadBits((int) ((xs[i] - xmin) * xscale))
+                    | spreadBits((int) ((ys[i] - ymin) * yscale)) << 1;
+            keys[i] = cell << 31 | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+        return order;
+    }
+
+    // spreads the low 16 bits of value to the even bits of the result
+    private static long spreadBits(int value) {
+        long bits = value & 0xFFFF;
+        bits = (bits | bits << 8) & 0x00FF00FFL;
+        bits = (bits | bits << 4) & 0x0F0F0F0FL;
+        bits = (bits | bits << 2) & 0x33333333L;
+        bits = (bits | bits << 1) & 0x55555555L;
+        return bits;
+    }
+
+    // runs query(order[i]) for every i, in parallel batches of consecutive i
+    private static void runAll(int[] order, IntConsumer query) {
+        int leaves = 4 * ForkJoinPool.getCommonPoolParallelism();
+        int queriesPerLeaf = Math.max(QUERIES_PER_TASK, order.length / leaves + 1);
+        ForkJoinPool.commonPool().invoke(new BatchQuery(order, 0, order.length, queriesPerLeaf, query));
+    }
+
+    /**
+     * Runs the queries of order[lo, hi), splitting them in half until there are
+     * few enough for one task. Queries only read the tree, and each thread has
+     * its own query stack, so the tasks share no mutable state.
+     */
+    private static class BatchQuery extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] order;
+        private final int lo;
+        private final int hi;
+        private final int queriesPerLeaf;
+        private final IntConsumer query;
+
+        BatchQuery(int[] order, int lo, int hi, int queriesPerLeaf, IntConsumer query) {
+            this.order = order;
+            this.lo = lo;
+            this.hi = hi;
+            this.queriesPerLeaf = queriesPerLeaf;
+            this.query = query;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= queriesPerLeaf) {
+                for (int i = lo; i < hi; i++) {
+                    query.accept(order[i]);
+                }
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new BatchQuery(order, lo, mid, queriesPerLeaf, query),
+                    new BatchQuery(order, mid, hi, queriesPerLeaf, query));
+        }
+    }
+
+    private void record(int visited, int pruned, int maxDepth) {
+        LAST_QUERY.set(new QueryStatistics(1, visited, pruned, maxDepth));
+        totals.queries.increment();
+        totals.nodesVisited.add(visited);
+        totals.subtreesPruned.add(pruned);
+        totals.maxDepth.accumulateAndGet(maxDepth, Math::max);
+    }
+
+    /**
+     * 
+     * Is the instrumentation of nearest() and range() on. It is off unless the
+     * JVM runs with -DKdTree.instrument=true, and when off it costs nothing.
+     * 
+     * @return true if queries are instrumented, otherwise false.
+     */
+    public static boolean isInstrumented() {
+        return INSTRUMENTED;
+    }
+
+    /**
+     * 
+     * Statistics of the last nearest() or range() query made by the calling
+     * thread on any tree.
+     * 
+     * @return the statistics of one query; all zero when the instrumentation is
+     *         off or the thread has made no query.
+     */
+    public static QueryStatistics lastQuery() {
+        QueryStatistics last = LAST_QUERY.get();
+        return last == null ? new QueryStatistics(0, 0, 0, 0) : last;
+    }
+
+    /**
+     * 
+     * Statistics of all nearest() and range() queries on this tree since it was
+     * created or the statistics were reset, summed over the queries except for
+     * the maximum depth, which is the deepest of any query.
+     * 
+     * @return the summed statistics; all zero when the instrumentation is off.
+     */
+    public QueryStatistics totalStatistics() {
+        if (!INSTRUMENTED) {
+            return new QueryStatistics(0, 0, 0, 0);
+        }
+        return new QueryStatistics(totals.queries.sum(), totals.nodesVisited.sum(), totals.subtreesPruned.sum(),
+                totals.maxDepth.get());
+    }
+
+    /**
+     * 
+     * Sets the summed statistics of this tree back to zero.
+     * 
+     */
+    public void resetStatistics() {
+        if (INSTRUMENTED) {
+            totals.queries.reset();
+            totals.nodesVisited.reset();
+            totals.subtreesPruned.reset();
+            totals.maxDepth.set(0);
+        }
+    }
+
+    /**
+     * 
+     * Number of nodes on the longest path from the root, deleted nodes included.
+     * 
+     * @return the height of the tree; 0 when the tree has no nodes.
+     */
+    public int height() {
+        return height(root);
+    }
+
+    /**
+     * 
+     * How much taller the tree is than a perfectly balanced tree of as many
+     * nodes, which has a height of ceil(log2(n + 1)).
+     * 
+     * @return the height divided by the height of a perfectly balanced tree; 1
+     *         for a balanced or empty tree.
+     */
+    public double balanceFactor() {
+        int nodes = count(root);
+        if (nodes == 0) {
+            return 1;
+        }
+        int balancedHeight = 32 - Integer.numberOfLeadingZeros(nodes);
+        return height(root) / (double) balancedHeight;
+    }
+
+    /**
+     * Counts of the work done by queries, collected when the instrumentation is
+     * on.
+     */
+    public static class QueryStatistics {
+        private final long queries;
+        private final long nodesVisited;
+        private final long subtreesPruned;
+        private final int maxDepth;
+
+        private QueryStatistics(long queries, long nodesVisited, long subtreesPruned, int maxDepth) {
+            this.queries = queries;
+            this.nodesVisited = nodesVisited;
+            this.subtreesPruned = subtreesPruned;
+            this.maxDepth = maxDepth;
+        }
+
+        /**
+         * Number of queries counted.
+         * 
+         * @return number of queries.
+         */
+        public long queries() {
+            return queries;
+        }
+
+        /**
+         * Number of nodes whose points were compared to the query.
+         * 
+         * @return number of nodes visited.
+         */
+        public long nodesVisited() {
+            return nodesVisited;
+        }
+
+        /**
+         * Number of subtrees skipped because they could not hold an answer.
+         * 
+         * @return number of subtrees pruned.
+         */
+        public long subtreesPruned() {
+            return subtreesPruned;
+        }
+
+        /**
+         * Depth of the deepest node visited, the root being at depth 0.
+         * 
+         * @return the maximum depth reached.
+         */
+        public int maxDepth() {
+            return maxDepth;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d queries, %d nodes visited, %d subtrees pruned, max depth %d", queries,
+                    nodesVisited, subtreesPruned, maxDepth);
+        }
+    }
+
+    /**
+     * Running totals of the statistics of the queries on one tree, which several
+     * threads may add to at once.
+     */
+    private static class Totals {
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder nodesVisited = new LongAdder();
+        private final LongAdder subtreesPruned = new LongAdder();
+        private final AtomicInteger maxDepth = new AtomicInteger();
+    }
+
+    private static void throwIfNull(Point2D p) {
         if (p == null) {
             throw new IllegalArgumentException("Point must not be null.");
         }
@@ -322,5 +1468,269 @@ public class KdTree {
             }
         }
         assert count == 5;
+
+        // bulk loading sorted points gives a balanced tree
+        Point2D[] sorted = new Point2D[1023];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = new Point2D(i / 1024.0, i / 1024.0);
+        }
+        KdTree balanced = new KdTree(sorted);
+        assert balanced.size() == 1023;
+        assert height(balanced.root) == 10;
+        for (Point2D p : sorted) {
+            assert balanced.contains(p);
+        }
+
+        // duplicates and ties on the splitting coordinates
+        Point2D[] ties = new Point2D[400];
+        for (int i = 0; i < ties.length; i++) {
+            ties[i] = new Point2D(StdRandom.uniformInt(5) / 4.0, StdRandom.uniformInt(5) / 4.0);
+        }
+        KdTree tied = new KdTree(ties);
+        assert tied.size() <= 25;
+        for (Point2D p : ties) {
+            assert tied.contains(p);
+        }
+
+        // bulk loaded trees answer the same as a brute force search
+        Point2D[] random = new Point2D[20000];
+        double[] xs = new double[random.length];
+        double[] ys = new double[random.length];
+        PointSET pointSet = new PointSET();
+        for (int i = 0; i < random.length; i++) {
+            xs[i] = StdRandom.uniformDouble();
+            ys[i] = StdRandom.uniformDouble();
+            random[i] = new Point2D(xs[i], ys[i]);
+            pointSet.insert(random[i]);
+        }
+        KdTree sequential = new KdTree(random);
+        KdTree parallel = new KdTree(xs, ys, true);
+        assert sequential.size() == pointSet.size();
+        assert parallel.size() == pointSet.size();
+        assert height(parallel.root) == height(sequential.root);
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+            double distance = query.distanceSquaredTo(pointSet.nearest(query));
+            assert query.distanceSquaredTo(sequential.nearest(query)) == distance;
+            assert query.distanceSquaredTo(parallel.nearest(query)) == distance;
+
+            double x = StdRandom.uniformDouble(0, 0.9);
+            double y = StdRandom.uniformDouble(0, 0.9);
+            RectHV rect = new RectHV(x, y, x + 0.1, y + 0.1);
+            int expected = count(pointSet.range(rect));
+            assert count(sequential.range(rect)) == expected;
+            assert count(parallel.range(rect)) == expected;
+        }
+
+        // k nearest and within radius answer the same as sorting all the points
+        double[] distances = new double[random.length];
+        for (int i = 0; i < 100; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+            for (int j = 0; j < random.length; j++) {
+                distances[j] = query.distanceSquaredTo(random[j]);
+            }
+            Arrays.sort(distances);
+
+            int k = 1 + StdRandom.uniformInt(50);
+            int found = 0;
+            double previous = 0;
+            for (Point2D neighbor : parallel.nearest(query, k)) {
+                double distance = query.distanceSquaredTo(neighbor);
+                assert distance == distances[found++];
+                assert distance >= previous : "Neighbors should be nearest first.";
+                previous = distance;
+            }
+            assert found == k;
+
+            double r = StdRandom.uniformDouble(0, 0.05);
+            int inside = 0;
+            while (inside < distances.length && distances[inside] <= r * r) {
+                inside++;
+            }
+            assert count(sequential.withinRadius(query, r)) == inside;
+        }
+        assert count(kdTree.nearest(point3x3, 10)) == 5;
+        assert kdTree.nearest(point3x3, 1).iterator().next().equals(point3x3);
+        assert count(kdTree.withinRadius(point3x3, 0.15)) == 3;
+        assert count(new KdTree().nearest(point3x3, 3)) == 0;
+
+        // batches answer the same as one query at a time, in the callers' order
+        Point2D[] queries = new Point2D[5000];
+        RectHV[] rects = new RectHV[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+            double x = StdRandom.uniformDouble(0, 0.95);
+            double y = StdRandom.uniformDouble(0, 0.95);
+            rects[i] = new RectHV(x, y, x + 0.05, y + 0.05);
+        }
+        Point2D[] sortedNearest = parallel.nearestAll(queries);
+        Point2D[] unsortedNearest = parallel.nearestAll(queries, false);
+        Iterable<Point2D>[] sortedRanges = parallel.rangeAll(rects);
+        Iterable<Point2D>[] unsortedRanges = parallel.rangeAll(rects, false);
+        for (int i = 0; i < queries.length; i++) {
+            assert sortedNearest[i].equals(parallel.nearest(queries[i]));
+            assert unsortedNearest[i].equals(sortedNearest[i]);
+            int expected = count(parallel.range(rects[i]));
+            assert count(sortedRanges[i]) == expected;
+            assert count(unsortedRanges[i]) == expected;
+        }
+        assert new KdTree().nearestAll(new Point2D[0]).length == 0;
+
+        // sorted insertions stay balanced
+        KdTree inserted = new KdTree();
+        for (int i = 0; i < 1 << 14; i++) {
+            inserted.insert(new Point2D(i / 16384.0, i / 16384.0));
+        }
+        assert inserted.size() == 1 << 14;
+        assert height(inserted.root) <= 1 + Math.log(1 << 14) / Math.log(1 / ALPHA);
+
+        // deletions and revivals answer the same as a brute force search
+        KdTree churned = new KdTree(random);
+        HashSet<Point2D> live = new HashSet<>(Arrays.asList(random));
+        for (int i = 0; i < 30000; i++) {
+            Point2D p = random[StdRandom.uniformInt(random.length)];
+            if (StdRandom.bernoulli(0.6)) {
+                churned.delete(p);
+                live.remove(p);
+            } else {
+                churned.insert(p);
+                live.add(p);
+            }
+            assert churned.contains(p) == live.contains(p);
+        }
+        assert churned.size() == live.size();
+        assert 2 * churned.root.deletedCount <= churned.root.count;
+        for (int i = 0; i < 100; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+            double distance = Double.POSITIVE_INFINITY;
+            int inRect = 0;
+            RectHV rect = new RectHV(query.x() / 2, query.y() / 2, query.x(), query.y());
+            for (Point2D p : live) {
+                distance = Math.min(distance, query.distanceSquaredTo(p));
+                if (rect.contains(p))
+                    inRect++;
+            }
+            assert query.distanceSquaredTo(churned.nearest(query)) == distance;
+            assert count(churned.range(rect)) == inRect;
+        }
+        for (Point2D p : random) {
+            churned.delete(p);
+        }
+        assert churned.isEmpty();
+        assert churned.root == null;
+        churned.insert(point1x1);
+        assert churned.nearest(point5x5).equals(point1x1);
+
+        // points outside the unit square, inserted and bulk loaded
+        KdTree wide = new KdTree();
+        Point2D[] widePoints = new Point2D[5000];
+        PointSET widePointSet = new PointSET();
+        for (int i = 0; i < widePoints.length; i++) {
+            widePoints[i] = new Point2D(StdRandom.uniformDouble(-1000, 3000), StdRandom.uniformDouble(-50, 50));
+            wide.insert(widePoints[i]);
+            widePointSet.insert(widePoints[i]);
+        }
+        KdTree wideBulk = new KdTree(widePoints);
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(-2000, 4000), StdRandom.uniformDouble(-100, 100));
+            double distance = query.distanceSquaredTo(widePointSet.nearest(query));
+            assert query.distanceSquaredTo(wide.nearest(query)) == distance;
+            assert query.distanceSquaredTo(wideBulk.nearest(query)) == distance;
+
+            RectHV rect = new RectHV(query.x(), query.y(), query.x() + 500, query.y() + 20);
+            int expected = count(widePointSet.range(rect));
+            assert count(wide.range(rect)) == expected;
+            assert count(wideBulk.range(rect)) == expected;
+            assert count(wide.withinRadius(query, 100)) == count(wideBulk.withinRadius(query, 100));
+        }
+
+        // counting and visiting find the same points as range()
+        for (int i = 0; i < 200; i++) {
+            double x = StdRandom.uniformDouble(0, 0.8);
+            double y = StdRandom.uniformDouble(0, 0.8);
+            RectHV rect = new RectHV(x, y, x + StdRandom.uniformDouble(0, 0.2), y + StdRandom.uniformDouble(0, 0.2));
+            int expected = count(pointSet.range(rect));
+            assert parallel.rangeCount(rect) == expected;
+            assert inserted.rangeCount(rect) == count(inserted.range(rect));
+
+            int[] visited = { 0 };
+            parallel.range(rect, p -> {
+                assert rect.contains(p);
+                visited[0]++;
+            });
+            assert visited[0] == expected;
+
+            // the visitor may query the tree it is visiting
+            int[] found = { 0 };
+            parallel.range(rect, p -> {
+                assert parallel.contains(p);
+                assert parallel.nearest(p).equals(p);
+                found[0] += count(parallel.range(new RectHV(p.x(), p.y(), p.x(), p.y())));
+            });
+            assert found[0] >= expected;
+        }
+        assert parallel.rangeCount(new RectHV(0, 0, 1, 1)) == parallel.size();
+        assert wide.rangeCount(new RectHV(-1000, -50, 3000, 50)) == wide.size();
+        KdTree counted = new KdTree(random);
+        for (int i = 0; i < random.length; i += 2) {
+            counted.delete(random[i]);
+        }
+        assert counted.rangeCount(new RectHV(0, 0, 1, 1)) == counted.size();
+        assert counted.rangeCount(new RectHV(0, 0, 0.5, 0.5)) == count(counted.range(new RectHV(0, 0, 0.5, 0.5)));
+        assert new KdTree().rangeCount(new RectHV(0, 0, 1, 1)) == 0;
+
+        // approximate nearest neighbors are within the error bound
+        for (int i = 0; i < 200; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+            double distance = query.distanceTo(pointSet.nearest(query));
+            Neighbor exact = parallel.nearest(query, 0, Integer.MAX_VALUE);
+            assert query.distanceTo(exact.point()) == distance;
+            Neighbor approximate = parallel.nearest(query, 0.5, Integer.MAX_VALUE);
+            assert query.distanceTo(approximate.point()) <= 1.5 * distance;
+            assert approximate.nodesVisited() <= exact.nodesVisited();
+            Neighbor limited = parallel.nearest(query, 0, 10);
+            assert limited.point() != null;
+            assert limited.nodesVisited() <= 10;
+        }
+        assert counted.nearest(point1x1, 0, 1).point() != null : "Deleted nodes should not be the answer.";
+
+        // statistics, which are only collected with -DKdTree.instrument=true
+        KdTree measured = new KdTree(random);
+        assert measured.height() == height(measured.root);
+        assert measured.balanceFactor() == 1.0;
+        assert inserted.balanceFactor() < 1.5 : "Scapegoat rebuilds should keep the tree balanced.";
+        Point2D query = new Point2D(0.5, 0.5);
+        measured.nearest(query);
+        QueryStatistics last = lastQuery();
+        measured.range(new RectHV(0.4, 0.4, 0.6, 0.6));
+        if (isInstrumented()) {
+            assert last.queries() == 1;
+            assert last.nodesVisited() > 0 && last.nodesVisited() < 100;
+            assert last.maxDepth() < measured.height();
+            assert lastQuery().nodesVisited() >= count(measured.range(new RectHV(0.4, 0.4, 0.6, 0.6)));
+            QueryStatistics total = measured.totalStatistics();
+            assert total.queries() == 3;
+            assert total.nodesVisited() >= last.nodesVisited() + lastQuery().nodesVisited();
+            measured.resetStatistics();
+            assert measured.totalStatistics().queries() == 0;
+        } else {
+            assert last.queries() == 0;
+            assert measured.totalStatistics().nodesVisited() == 0;
+        }
+    }
+
+    private static int height(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        return 1 + Math.max(height(node.left), height(node.right));
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D p : points) {
+            count++;
+        }
+        return count;
     }
 }
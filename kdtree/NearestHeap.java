@@ -0,0 +1,96 @@
+/**
+ * Max-heap of at most capacity candidates for a k-nearest query, keyed by their
+ * squared distance to the query point. Once full, a candidate only gets in by
+ * replacing the farthest. A candidate is an item, an int key or both, so trees
+ * packed into arrays can offer node indexes without boxing them.
+ */
+class NearestHeap<T> {
+    private final Object[] items;
+    private final int[] keys;
+    private final double[] distances;
+    private int size;
+
+    NearestHeap(int capacity) {
+        items = new Object[capacity];
+        keys = new int[capacity];
+        distances = new double[capacity];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // squared distance a candidate must beat to get into the heap
+    double bound() {
+        return size < distances.length ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    void offer(T item, int key, double distance) {
+        if (size < distances.length) {
+            items[size] = item;
+            keys[size] = key;
+            distances[size] = distance;
+            swim(size++);
+        } else if (distance < distances[0]) {
+            items[0] = item;
+            keys[0] = key;
+            distances[0] = distance;
+            sink(0);
+        }
+    }
+
+    // the item of the farthest candidate
+    @SuppressWarnings("unchecked")
+    T maxItem() {
+        return (T) items[0];
+    }
+
+    // the key of the farthest candidate
+    int maxKey() {
+        return keys[0];
+    }
+
+    void removeMax() {
+        size--;
+        items[0] = items[size];
+        keys[0] = keys[size];
+        distances[0] = distances[size];
+        items[size] = null;
+        sink(0);
+    }
+
+    private void swim(int i) {
+        while (i > 0 && distances[(i - 1) / 2] < distances[i]) {
+            exchange(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void sink(int i) {
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && distances[child] < distances[child + 1])
+                child++;
+            if (distances[i] >= distances[child])
+                break;
+            exchange(i, child);
+            i = child;
+        }
+    }
+
+    private void exchange(int i, int j) {
+        Object item = items[i];
+        items[i] = items[j];
+        items[j] = item;
+        int key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+}
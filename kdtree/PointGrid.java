@@ -0,0 +1,468 @@
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdDraw;
+import edu.princeton.cs.algs4.StdRandom;
+
+/**
+ * A set of points bucketed into a uniform grid of square-ish cells over their
+ * bounding box. The grid is resized to about two points per cell as the set
+ * grows, so for evenly spread points insert and contains take expected O(1)
+ * time, and range and nearest only scan the cells near the query. Points that
+ * bunch together, in clusters or along lines, fill a few cells and leave the
+ * rest empty, which KdTree handles better. The cells are sized from the
+ * bounding box rather than from where the points are, so a single point far
+ * from the rest stretches the grid until nearly all the points share one cell
+ * and every query scans them all.
+ */
+public class PointGrid {
+    private static final int POINTS_PER_CELL = 2; // after resizing
+    private static final int MAX_POINTS_PER_CELL = 8; // on average, before resizing
+
+    private int size;
+    private int side; // cells along each axis
+    private double[][] cells; // x and y of the points in each cell, row by row
+    private int[] cellSizes; // number of points in each cell
+
+    // the box covered by the grid; every point is inside it
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+    private double cellWidth;
+    private double cellHeight;
+
+    // where each column or row starts, then maxX or maxY: a point is in the cell
+    // whose bounds hold it, so searches can bound a cell's points by them
+    private double[] columnBounds = new double[0];
+    private double[] rowBounds = new double[0];
+
+    /**
+     * Represents a set of points anywhere in the plane.
+     *
+     */
+    public PointGrid() {
+        size = 0;
+        side = 0;
+        cells = new double[0][];
+        cellSizes = new int[0];
+    }
+
+    /**
+     *
+     * Is the set empty.
+     *
+     * @return true if the set empty, otherwise false.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *
+     * Number of points in the set.
+     *
+     * @return number of points in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * Add the point to the set (if it is not already in the set). A point outside
+     * the grid grows the grid a quarter beyond it, and the grid is resized to
+     * POINTS_PER_CELL points per cell once it averages MAX_POINTS_PER_CELL, which
+     * takes O(1) amortized time for points spread over a fixed box.
+     *
+     * @param p point to add.
+     * @throws IllegalArgumentException when p is null.
+     */
+    public void insert(Point2D p) {
+        throwIfNull(p);
+        if (contains(p)) {
+            return;
+        }
+
+        double x = p.x();
+        double y = p.y();
+        if (size == 0) {
+            resize(x, y, x, y, 1);
+        } else if (x < minX || x > maxX || y < minY || y > maxY) {
+            double padX = (Math.max(maxX, x) - Math.min(minX, x)) / 4;
+            double padY = (Math.max(maxY, y) - Math.min(minY, y)) / 4;
+            resize(x < minX ? x - padX : minX, y < minY ? y - padY : minY,
+                    x > maxX ? x + padX : maxX, y > maxY ? y + padY : maxY, side);
+        }
+
+        add(x, y);
+        size++;
+        if (size > MAX_POINTS_PER_CELL * side * side) {
+            double[] bounds = bounds();
+            int newSide = (int) Math.ceil(Math.sqrt(size / (double) POINTS_PER_CELL));
+            resize(bounds[0], bounds[1], bounds[2], bounds[3], newSide);
+        }
+    }
+
+    private void add(double x, double y) {
+        int cell = row(y) * side + column(x);
+        int n = cellSizes[cell];
+        if (cells[cell] == null) {
+            cells[cell] = new double[2 * POINTS_PER_CELL];
+        } else if (2 * n == cells[cell].length) {
+            cells[cell] = Arrays.copyOf(cells[cell], 4 * n);
+        }
+        cells[cell][2 * n] = x;
+        cells[cell][2 * n + 1] = y;
+        cellSizes[cell]++;
+    }
+
+    // the tight bounding box of the points: xmin, ymin, xmax, ymax
+    private double[] bounds() {
+        double[] bounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.NEGATIVE_INFINITY };
+        for (int cell = 0; cell < cells.length; cell++) {
+            for (int i = 0; i < cellSizes[cell]; i++) {
+                bounds[0] = Math.min(bounds[0], cells[cell][2 * i]);
+                bounds[1] = Math.min(bounds[1], cells[cell][2 * i + 1]);
+                bounds[2] = Math.max(bounds[2], cells[cell][2 * i]);
+                bounds[3] = Math.max(bounds[3], cells[cell][2 * i + 1]);
+            }
+        }
+        return bounds;
+    }
+
+    // moves the points into a new grid of newSide by newSide cells over the box
+    private void resize(double newMinX, double newMinY, double newMaxX, double newMaxY, int newSide) {
+        double[][] oldCells = cells;
+        int[] oldCellSizes = cellSizes;
+
+        minX = newMinX;
+        minY = newMinY;
+        // a box with no width or height still needs cells of some size
+        maxX = newMaxX > newMinX ? newMaxX : newMinX + 1;
+        maxY = newMaxY > newMinY ? newMaxY : newMinY + 1;
+        side = newSide;
+        cellWidth = (maxX - minX) / side;
+        cellHeight = (maxY - minY) / side;
+        columnBounds = cellBounds(minX, maxX, cellWidth);
+        rowBounds = cellBounds(minY, maxY, cellHeight);
+        cells = new double[side * side][];
+        cellSizes = new int[side * side];
+
+        for (int cell = 0; cell < oldCells.length; cell++) {
+            for (int i = 0; i < oldCellSizes[cell]; i++) {
+                add(oldCells[cell][2 * i], oldCells[cell][2 * i + 1]);
+            }
+        }
+    }
+
+    private double[] cellBounds(double min, double max, double cellSize) {
+        double[] bounds = new double[side + 1];
+        for (int i = 0; i < side; i++) {
+            bounds[i] = min + i * cellSize;
+        }
+        bounds[side] = max;
+        return bounds;
+    }
+
+    // column of the cell holding x, or the nearest column when x is outside
+    private int column(double x) {
+        return cell(x, minX, cellWidth, columnBounds);
+    }
+
+    // row of the cell holding y, or the nearest row when y is outside
+    private int row(double y) {
+        return cell(y, minY, cellHeight, rowBounds);
+    }
+
+    // the division only estimates the cell, since it can round across a
+    // boundary that the cell's bounds would not; the bounds decide
+    private int cell(double value, double min, double cellSize, double[] bounds) {
+        int cell = Math.max(0, Math.min(side - 1, (int) ((value - min) / cellSize)));
+        while (cell > 0 && value < bounds[cell])
+            cell--;
+        while (cell < side - 1 && value >= bounds[cell + 1])
+            cell++;
+        return cell;
+    }
+
+    /**
+     *
+     * Does the set contain point p?
+     *
+     * @param p point to check.
+     * @return true if the points is contained in the set, otherwise false.
+     * @throws IllegalArgumentException when p is null.
+     */
+    public boolean contains(Point2D p) {
+        throwIfNull(p);
+        if (size == 0) {
+            return false;
+        }
+
+        double x = p.x();
+        double y = p.y();
+        int cell = row(y) * side + column(x);
+        double[] points = cells[cell];
+        for (int i = 0; i < cellSizes[cell]; i++) {
+            if (points[2 * i] == x && points[2 * i + 1] == y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * Draw all points to standard draw.
+     *
+     */
+    public void draw() {
+        for (int cell = 0; cell < cells.length; cell++) {
+            for (int i = 0; i < cellSizes[cell]; i++) {
+                StdDraw.point(cells[cell][2 * i], cells[cell][2 * i + 1]);
+            }
+        }
+    }
+
+    /**
+     *
+     * All points that are inside the rectangle (or on the boundary).
+     *
+     * @param rect rectangle to check what points are in boundary.
+     * @return all points in or on the boundar of the rectangle.
+     * @throws IllegalArgumentException when rect is null.
+     */
+    public Iterable<Point2D> range(RectHV rect) {
+        if (rect == null) {
+            throw new IllegalArgumentException("Rectangle must not be null.");
+        }
+
+        Queue<Point2D> pointsInRect = new Queue<>();
+        if (size == 0 || rect.xmax() < minX || rect.xmin() > maxX || rect.ymax() < minY || rect.ymin() > maxY) {
+            return pointsInRect;
+        }
+
+        double queryXmin = rect.xmin();
+        double queryYmin = rect.ymin();
+        double queryXmax = rect.xmax();
+        double queryYmax = rect.ymax();
+        int lastColumn = column(queryXmax);
+        int lastRow = row(queryYmax);
+        for (int row = row(queryYmin); row <= lastRow; row++) {
+            for (int column = column(queryXmin); column <= lastColumn; column++) {
+                int cell = row * side + column;
+                double[] points = cells[cell];
+                for (int i = 0; i < cellSizes[cell]; i++) {
+                    double x = points[2 * i];
+                    double y = points[2 * i + 1];
+                    if (queryXmin <= x && x <= queryXmax && queryYmin <= y && y <= queryYmax) {
+                        pointsInRect.enqueue(new Point2D(x, y));
+                    }
+                }
+            }
+        }
+        return pointsInRect;
+    }
+
+    /**
+     *
+     * A nearest neighbor in the set to point p. The cells are searched in
+     * square rings around the query's cell, and the search stops at the first
+     * ring that is farther away than the nearest point found.
+     *
+     * @param p point to check for its nearest neighbor.
+     * @return the nearest point.
+     * @throws IllegalArgumentException when p is null or the set is empty.
+     */
+    public Point2D nearest(Point2D p) {
+        throwIfNull(p);
+        if (size == 0)
+            throw new IllegalArgumentException("No nearest point in as not points.");
+
+        double queryX = p.x();
+        double queryY = p.y();
+        int queryColumn = column(queryX);
+        int queryRow = row(queryY);
+        // no ring reaches past the grid on every side
+        int maxRing = Math.max(Math.max(queryColumn, side - 1 - queryColumn), Math.max(queryRow, side - 1 - queryRow));
+
+        double nearestX = Double.NaN;
+        double nearestY = Double.NaN;
+        double distanceToNearestPoint = Double.POSITIVE_INFINITY;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            double gap = ringGap(ring, queryRow, queryColumn, queryX, queryY);
+            if (gap * gap >= distanceToNearestPoint) {
+                break;
+            }
+
+            int firstRow = Math.max(0, queryRow - ring);
+            int lastRow = Math.min(side - 1, queryRow + ring);
+            for (int row = firstRow; row <= lastRow; row++) {
+                boolean edgeRow = row == queryRow - ring || row == queryRow + ring;
+                // inside the ring only the first and last columns are on it
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int column = queryColumn - ring; column <= queryColumn + ring; column += Math.max(1, step)) {
+                    if (column < 0 || column >= side) {
+                        continue;
+                    }
+
+                    int cell = row * side + column;
+                    if (cellSizes[cell] == 0
+                            || cellDistanceSquared(row, column, queryX, queryY) >= distanceToNearestPoint) {
+                        continue;
+                    }
+                    double[] points = cells[cell];
+                    for (int i = 0; i < cellSizes[cell]; i++) {
+                        double dx = points[2 * i] - queryX;
+                        double dy = points[2 * i + 1] - queryY;
+                        double distance = dx * dx + dy * dy;
+                        if (distance < distanceToNearestPoint) {
+                            nearestX = points[2 * i];
+                            nearestY = points[2 * i + 1];
+                            distanceToNearestPoint = distance;
+                        }
+                    }
+                }
+            }
+        }
+        return new Point2D(nearestX, nearestY);
+    }
+
+    // squared distance from (x, y) to the cell's rectangle
+    private double cellDistanceSquared(int row, int column, double x, double y) {
+        return KdTree.distanceSquared(columnBounds[column], rowBounds[row], columnBounds[column + 1],
+                rowBounds[row + 1], x, y);
+    }
+
+    // distance from (x, y), in the given cell or beside it, to the nearest cell
+    // of the ring of cells around it; every cell of the ring lies past a column
+    // or row boundary ring - 1 cells away from the given cell
+    private double ringGap(int ring, int row, int column, double x, double y) {
+        if (ring == 0) {
+            return 0;
+        }
+        double gap = Double.POSITIVE_INFINITY;
+        if (column + ring < side)
+            gap = Math.min(gap, columnBounds[column + ring] - x);
+        if (column - ring >= 0)
+            gap = Math.min(gap, x - columnBounds[column - ring + 1]);
+        if (row + ring < side)
+            gap = Math.min(gap, rowBounds[row + ring] - y);
+        if (row - ring >= 0)
+            gap = Math.min(gap, y - rowBounds[row - ring + 1]);
+        return Math.max(0, gap);
+    }
+
+    private void throwIfNull(Point2D p) {
+        if (p == null) {
+            throw new IllegalArgumentException("Point must not be null.");
+        }
+    }
+
+    // unit testing of the methods
+    public static void main(String[] args) {
+        PointGrid grid = new PointGrid();
+        assert grid.size() == 0;
+        assert grid.isEmpty();
+        assert !grid.contains(new Point2D(0.5, 0.5));
+        assert !grid.range(new RectHV(0, 0, 1, 1)).iterator().hasNext();
+        boolean thrown = false;
+        try {
+            grid.nearest(new Point2D(0.5, 0.5));
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown : "An empty set should have no nearest point.";
+
+        Point2D point1x1 = new Point2D(0.1, 0.1);
+        Point2D point2x2 = new Point2D(0.2, 0.2);
+        Point2D point3x3 = new Point2D(0.3, 0.3);
+        Point2D point4x4 = new Point2D(0.4, 0.4);
+        Point2D point5x5 = new Point2D(0.5, 0.5);
+
+        grid.insert(point1x1);
+        grid.insert(point2x2);
+        grid.insert(point3x3);
+        grid.insert(point4x4);
+        grid.insert(point5x5);
+        grid.insert(point5x5);
+        assert grid.size() == 5;
+        assert !grid.isEmpty();
+        assert grid.contains(point3x3);
+        assert !grid.contains(new Point2D(0.3, 0.1));
+
+        Point2D nearest = grid.nearest(new Point2D(0, 0));
+        assert nearest.equals(point1x1);
+        nearest = grid.nearest(new Point2D(0.25, 0.26));
+        assert nearest.equals(point3x3);
+        nearest = grid.nearest(new Point2D(0.4125, 0.5125));
+        assert nearest.equals(point5x5);
+
+        Iterable<Point2D> pointsInRect = grid.range(new RectHV(0.1, 0.2, 0.2, 0.3));
+        for (Point2D p : pointsInRect) {
+            assert p.equals(point2x2) : "This rectangle only contains one of the points.";
+        }
+
+        // the same answers as a brute force search, as the grid grows and moves
+        PointSET pointSet = new PointSET();
+        grid = new PointGrid();
+        for (int i = 0; i < 20000; i++) {
+            Point2D p;
+            if (i % 3 == 0) {
+                p = new Point2D(StdRandom.uniformDouble(-100, 100), StdRandom.uniformDouble(0, 1));
+            } else {
+                p = new Point2D(StdRandom.uniformInt(50), StdRandom.gaussian(0, 10));
+            }
+            grid.insert(p);
+            pointSet.insert(p);
+            assert grid.contains(p);
+        }
+        assert grid.size() == pointSet.size();
+        for (int i = 0; i < 500; i++) {
+            Point2D query = new Point2D(StdRandom.uniformDouble(-200, 200), StdRandom.uniformDouble(-50, 50));
+            assert query.distanceSquaredTo(grid.nearest(query)) == query.distanceSquaredTo(pointSet.nearest(query));
+
+            RectHV rect = new RectHV(query.x(), query.y(), query.x() + StdRandom.uniformDouble(0, 50),
+                    query.y() + StdRandom.uniformDouble(0, 10));
+            assert count(grid.range(rect)) == count(pointSet.range(rect));
+        }
+
+        // points on one vertical line give the grid no width
+        grid = new PointGrid();
+        for (int i = 0; i < 100; i++) {
+            grid.insert(new Point2D(0.5, i));
+        }
+        assert grid.nearest(new Point2D(3, 41.2)).equals(new Point2D(0.5, 41));
+        assert count(grid.range(new RectHV(0, 10, 1, 19))) == 10;
+
+        // points on a lattice far from the origin, many of them on or next to
+        // cell boundaries, with queries just beside them
+        pointSet = new PointSET();
+        grid = new PointGrid();
+        Point2D[] lattice = new Point2D[3600];
+        for (int i = 0; i < lattice.length; i++) {
+            lattice[i] = new Point2D(1e6 + 0.1 * (i / 60), 1e6 + 0.1 * (i % 60));
+            grid.insert(lattice[i]);
+            pointSet.insert(lattice[i]);
+        }
+        for (Point2D p : lattice) {
+            Point2D query = new Point2D(p.x() + StdRandom.uniformDouble(-1e-9, 1e-9),
+                    p.y() + StdRandom.uniformDouble(-1e-9, 1e-9));
+            assert grid.contains(p);
+            assert query.distanceSquaredTo(grid.nearest(query)) == query.distanceSquaredTo(pointSet.nearest(query));
+            assert count(grid.range(new RectHV(p.x(), p.y(), p.x(), p.y()))) == 1;
+        }
+    }
+
+    private static int count(Iterable<Point2D> points) {
+        int count = 0;
+        for (Point2D p : points) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * Nodes still to be searched by a k-d tree query, each with an int key and a
+ * box held as width doubles instead of a RectHV. Trees of node objects push
+ * their nodes, and trees packed into arrays push node indexes as the keys.
+ *
+ * The trees keep one stack per thread, which only grows, so queries do not
+ * allocate to search a tree and queries from several threads do not share
+ * state. Such a pooled stack must only be used by searches that run no caller
+ * code while searching, since a query made by that code would take the same
+ * stack; take() refuses a stack that is still in use rather than let the
+ * outer search go on with a corrupted one.
+ */
+class QueryStack<N> {
+    private Object[] nodes = new Object[64];
+    int[] keys = new int[64];
+    double[] bounds; // the box of the entry at i starts at bounds[i * width]
+    int size;
+    private int width;
+
+    QueryStack(int width) {
+        this.width = width;
+        bounds = new double[64 * width];
+    }
+
+    // the pooled stack of this thread for a new search
+    static <N> QueryStack<N> take(ThreadLocal<QueryStack<N>> pool) {
+        QueryStack<N> stack = pool.get();
+        if (stack.size > 0) {
+            throw new IllegalStateException("Query stack is in use by another search on this thread.");
+        }
+        return stack;
+    }
+
+    // empties the stack and sets the number of doubles in each entry's box
+    void reset(int width) {
+        clear();
+        this.width = width;
+        if (bounds.length < nodes.length * width) {
+            bounds = new double[nodes.length * width];
+        }
+    }
+
+    // pushes an entry whose box the caller writes at bounds[entry * width],
+    // returning the entry
+    int push(N node, int key) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * size);
+            keys = Arrays.copyOf(keys, 2 * size);
+            bounds = Arrays.copyOf(bounds, 2 * size * width);
+        }
+        nodes[size] = node;
+        keys[size] = key;
+        return size++;
+    }
+
+    // pushes an entry with a rectangle as its box
+    void push(N node, int key, double xmin, double ymin, double xmax, double ymax) {
+        int box = push(node, key) * width;
+        bounds[box] = xmin;
+        bounds[box + 1] = ymin;
+        bounds[box + 2] = xmax;
+        bounds[box + 3] = ymax;
+    }
+
+    // pushes an entry with a copy of the box of the entry from, which may be
+    // the popped entry the new one replaces
+    int pushCopy(N node, int key, int from) {
+        int entry = push(node, key);
+        System.arraycopy(bounds, from * width, bounds, entry * width, width);
+        return entry;
+    }
+
+    // removes the top entry and returns its node; its key and box stay at
+    // entry size until the next push
+    @SuppressWarnings("unchecked")
+    N pop() {
+        Object node = nodes[--size];
+        nodes[size] = null; // do not keep the nodes reachable
+        return (N) node;
+    }
+
+    void clear() {
+        while (size > 0) {
+            nodes[--size] = null;
+        }
+    }
+}
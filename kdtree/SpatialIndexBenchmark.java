@@ -0,0 +1,199 @@
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.Point2D;
+import edu.princeton.cs.algs4.RectHV;
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ * Times PointSET, KdTree and PointGrid on uniform, clustered and line-like
+ * points in the unit square for doubling numbers of points, reporting the time
+ * to insert the points one at a time and the throughput of nearest and range
+ * queries. PointSET scans every point per query, so it is only run up to
+ * POINT_SET_MAX_POINTS.
+ *
+ * Usage: java SpatialIndexBenchmark [minPoints] [maxPoints] [queries]
+ */
+public class SpatialIndexBenchmark {
+    private static final int POINT_SET_MAX_POINTS = 20000;
+    private static final double RANGE_SIDE = 0.01; // side of the range queries' squares
+
+    private enum Distribution {
+        UNIFORM {
+            Point2D[] create(int n) {
+                Point2D[] points = new Point2D[n];
+                for (int i = 0; i < n; i++) {
+                    points[i] = new Point2D(StdRandom.uniformDouble(), StdRandom.uniformDouble());
+                }
+                return points;
+            }
+        },
+        CLUSTERED {
+            Point2D[] create(int n) {
+                // twenty tight gaussian clusters
+                double[] centers = new double[40];
+                for (int i = 0; i < centers.length; i++) {
+                    centers[i] = StdRandom.uniformDouble(0.1, 0.9);
+                }
+                Point2D[] points = new Point2D[n];
+                for (int i = 0; i < n; i++) {
+                    int cluster = StdRandom.uniformInt(20);
+                    points[i] = new Point2D(clamp(StdRandom.gaussian(centers[2 * cluster], 0.01)),
+                            clamp(StdRandom.gaussian(centers[2 * cluster + 1], 0.01)));
+                }
+                return points;
+            }
+        },
+        LINES {
+            Point2D[] create(int n) {
+                // three lines across the square, with a little noise
+                double[] ends = new double[12];
+                for (int i = 0; i < ends.length; i++) {
+                    ends[i] = StdRandom.uniformDouble();
+                }
+                Point2D[] points = new Point2D[n];
+                for (int i = 0; i < n; i++) {
+                    int line = StdRandom.uniformInt(3);
+                    double t = StdRandom.uniformDouble();
+                    double x = ends[4 * line] + t * (ends[4 * line + 2] - ends[4 * line]);
+                    double y = ends[4 * line + 1] + t * (ends[4 * line + 3] - ends[4 * line + 1]);
+                    points[i] = new Point2D(clamp(x + StdRandom.gaussian(0, 1e-4)),
+                            clamp(y + StdRandom.gaussian(0, 1e-4)));
+                }
+                return points;
+            }
+        };
+
+        abstract Point2D[] create(int n);
+
+        private static double clamp(double value) {
+            return Math.max(0, Math.min(1, value));
+        }
+    }
+
+    /**
+     * The part of the API shared by the three sets, which have no common type.
+     */
+    private interface Index {
+        void insert(Point2D p);
+
+        Point2D nearest(Point2D p);
+
+        Iterable<Point2D> range(RectHV rect);
+    }
+
+    private enum Structure {
+        POINT_SET {
+            Index create() {
+                PointSET set = new PointSET();
+                return new Index() {
+                    public void insert(Point2D p) {
+                        set.insert(p);
+                    }
+
+                    public Point2D nearest(Point2D p) {
+                        return set.nearest(p);
+                    }
+
+                    public Iterable<Point2D> range(RectHV rect) {
+                        return set.range(rect);
+                    }
+                };
+            }
+        },
+        KD_TREE {
+            Index create() {
+                KdTree tree = new KdTree();
+                return new Index() {
+                    public void insert(Point2D p) {
+                        tree.insert(p);
+                    }
+
+                    public Point2D nearest(Point2D p) {
+                        return tree.nearest(p);
+                    }
+
+                    public Iterable<Point2D> range(RectHV rect) {
+                        return tree.range(rect);
+                    }
+                };
+            }
+        },
+        GRID {
+            Index create() {
+                PointGrid grid = new PointGrid();
+                return new Index() {
+                    public void insert(Point2D p) {
+                        grid.insert(p);
+                    }
+
+                    public Point2D nearest(Point2D p) {
+                        return grid.nearest(p);
+                    }
+
+                    public Iterable<Point2D> range(RectHV rect) {
+                        return grid.range(rect);
+                    }
+                };
+            }
+        };
+
+        abstract Index create();
+    }
+
+    private SpatialIndexBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int minPoints = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int maxPoints = args.length > 1 ? Integer.parseInt(args[1]) : 1280000;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        StdOut.printf("%-10s %9s %-10s %10s %14s %14s%n",
+                "points", "n", "structure", "insert s", "nearest/s", "range/s");
+        for (Distribution distribution : Distribution.values()) {
+            for (int n = minPoints; n <= maxPoints; n *= 2) {
+                // queries follow the points, as lookups of sensor readings do; both
+                // come from one call, since each call places new clusters or lines
+                Point2D[] sample = distribution.create(n + queries);
+                Point2D[] points = Arrays.copyOf(sample, n);
+                Point2D[] nearestQueries = Arrays.copyOfRange(sample, n, n + queries);
+                RectHV[] rangeQueries = new RectHV[queries];
+                for (int i = 0; i < queries; i++) {
+                    double x = Math.min(nearestQueries[i].x(), 1 - RANGE_SIDE);
+                    double y = Math.min(nearestQueries[i].y(), 1 - RANGE_SIDE);
+                    rangeQueries[i] = new RectHV(x, y, x + RANGE_SIDE, y + RANGE_SIDE);
+                }
+
+                for (Structure structure : Structure.values()) {
+                    if (structure == Structure.POINT_SET && n > POINT_SET_MAX_POINTS) {
+                        continue;
+                    }
+
+                    Stopwatch stopwatch = new Stopwatch();
+                    Index index = structure.create();
+                    for (Point2D p : points) {
+                        index.insert(p);
+                    }
+                    double insertTime = stopwatch.elapsedTime();
+
+                    stopwatch = new Stopwatch();
+                    for (Point2D query : nearestQueries) {
+                        index.nearest(query);
+                    }
+                    double nearestTime = stopwatch.elapsedTime();
+
+                    stopwatch = new Stopwatch();
+                    for (RectHV query : rangeQueries) {
+                        index.range(query);
+                    }
+                    double rangeTime = stopwatch.elapsedTime();
+
+                    StdOut.printf("%-10s %9d %-10s %10.3f %14.0f %14.0f%n", distribution, n, structure,
+                            insertTime, queries / nearestTime, queries / rangeTime);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,564 @@
+import java.util.Arrays;
+
+import edu.princeton.cs.algs4.Queue;
+import edu.princeton.cs.algs4.StdRandom;
+
+/**
+ * An immutable k-d tree of points with any number of dimensions, each given as
+ * a double[] of its coordinates. As in ImplicitKdTree the tree is balanced and
+ * complete and packed into arrays, the node at index i having its children at
+ * 2i + 1 and 2i + 2, but each node also records the axis it splits on: either
+ * the depth modulo the dimension, or the axis along which the node's points
+ * are most spread out, which suits data that varies along a few axes only.
+ */
+public class VectorKdTree {
+    private final int dimension;
+    private final int size;
+    private final double[] coords; // the coordinates of each node, in tree order
+    private final int[] axes; // the axis each node splits on
+
+    // bounding box of the points, the box of the root
+    private final double[] lower;
+    private final double[] upper;
+
+    // each entry's box is the lower corner, the upper corner and the squared
+    // distance from the query point, so the stack's width depends on the tree
+    private static final ThreadLocal<QueryStack<Void>> QUERY_STACKS = ThreadLocal
+            .withInitial(() -> new QueryStack<>(0));
+
+    /**
+     * Builds a tree of the given points, splitting on the axes in turn.
+     *
+     * @param points the points in the set, all with the same number of
+     *               coordinates; equal points are all kept.
+     * @throws IllegalArgumentException when points is null, any point is null,
+     *                                  the points have no coordinates or differ
+     *                                  in dimension.
+     */
+    public VectorKdTree(double[][] points) {
+        this(points, false);
+    }
+
+    /**
+     * Builds a tree of the given points.
+     *
+     * @param points    the points in the set, all with the same number of
+     *                  coordinates; equal points are all kept.
+     * @param maxSpread true to split each subtree on the axis along which its
+     *                  points are most spread out, otherwise false to split on
+     *                  the axes in turn.
+     * @throws IllegalArgumentException when points is null, any point is null,
+     *                                  the points have no coordinates or differ
+     *                                  in dimension.
+     */
+    public VectorKdTree(double[][] points, boolean maxSpread) {
+        if (points == null) {
+            throw new IllegalArgumentException("Points must not be null.");
+        }
+        for (double[] p : points) {
+            if (p == null) {
+                throw new IllegalArgumentException("Point must not be null.");
+            }
+        }
+        dimension = points.length == 0 ? 0 : points[0].length;
+        if (points.length > 0 && dimension < 1) {
+            throw new IllegalArgumentException("Points must have at least one coordinate.");
+        }
+        for (double[] p : points) {
+            if (p.length != dimension) {
+                throw new IllegalArgumentException("All points must have the same dimension.");
+            }
+        }
+
+        size = points.length;
+        coords = new double[size * dimension];
+        axes = new int[size];
+        lower = new double[dimension];
+        upper = new double[dimension];
+        Arrays.fill(lower, Double.POSITIVE_INFINITY);
+        Arrays.fill(upper, Double.NEGATIVE_INFINITY);
+        for (double[] p : points) {
+            for (int axis = 0; axis < dimension; axis++) {
+                lower[axis] = Math.min(lower[axis], p[axis]);
+                upper[axis] = Math.max(upper[axis], p[axis]);
+            }
+        }
+
+        build(Arrays.copyOf(points, size), 0, size, 0, 0, maxSpread);
+    }
+
+    // places the complete subtree of points[lo, hi) at node index
+    private void build(double[][] points, int lo, int hi, int index, int depth, boolean maxSpread) {
+        if (lo >= hi) {
+            return;
+        }
+
+        int axis = maxSpread ? widestAxis(points, lo, hi) : depth % dimension;
+        int median = lo + ImplicitKdTree.leftSize(hi - lo);
+        KdTree.select(points, lo, hi - 1, median, p -> p[axis]);
+        axes[index] = axis;
+        System.arraycopy(points[median], 0, coords, index * dimension, dimension);
+        build(points, lo, median, 2 * index + 1, depth + 1, maxSpread);
+        build(points, median + 1, hi, 2 * index + 2, depth + 1, maxSpread);
+    }
+
+    // axis with the largest difference between the points' coordinates
+    private int widestAxis(double[][] points, int lo, int hi) {
+        int widest = 0;
+        double widestSpread = -1;
+        for (int axis = 0; axis < dimension; axis++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = lo; i < hi; i++) {
+                min = Math.min(min, points[i][axis]);
+                max = Math.max(max, points[i][axis]);
+            }
+            if (max - min > widestSpread) {
+                widest = axis;
+                widestSpread = max - min;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     *
+     * Number of coordinates of each point; 0 for a tree built of no points.
+     *
+     * @return number of coordinates of each point.
+     */
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     *
+     * Is the set empty.
+     *
+     * @return true if the set empty, otherwise false.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     *
+     * Number of points in the set.
+     *
+     * @return number of points in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     *
+     * Does the set contain point p?
+     *
+     * @param p point to check.
+     * @return true if the points is contained in the set, otherwise false.
+     * @throws IllegalArgumentException when p is null or has the wrong dimension.
+     */
+    public boolean contains(double[] p) {
+        throwIfInvalid(p);
+
+        QueryStack<Void> stack = QueryStack.take(QUERY_STACKS);
+        stack.reset(0);
+        if (size > 0) {
+            stack.push(null, 0);
+        }
+        while (stack.size > 0) {
+            stack.pop();
+            int index = stack.keys[stack.size];
+            if (equalsNode(index, p)) {
+                stack.clear();
+                return true;
+            }
+
+            // points equal to the split coordinate may be on either side
+            double query = p[axes[index]];
+            double split = coords[index * dimension + axes[index]];
+            if (query <= split && 2 * index + 1 < size)
+                stack.push(null, 2 * index + 1);
+            if (query >= split && 2 * index + 2 < size)
+                stack.push(null, 2 * index + 2);
+        }
+        return false;
+    }
+
+    private boolean equalsNode(int index, double[] p) {
+        int offset = index * dimension;
+        for (int axis = 0; axis < dimension; axis++) {
+            if (coords[offset + axis] != p[axis]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * All points inside the box (or on the boundary), which holds the points
+     * with lo[i] <= p[i] <= hi[i] on every axis i.
+     *
+     * @param lo the smallest coordinates of the box.
+     * @param hi the largest coordinates of the box.
+     * @return copies of all points in or on the boundary of the box.
+     * @throws IllegalArgumentException when lo or hi is null or has the wrong
+     *                                  dimension.
+     */
+    public Iterable<double[]> range(double[] lo, double[] hi) {
+        throwIfInvalid(lo);
+        throwIfInvalid(hi);
+
+        Queue<double[]> pointsInBox = new Queue<>();
+        QueryStack<Void> stack = QueryStack.take(QUERY_STACKS);
+        stack.reset(width());
+        if (size > 0) {
+            pushRoot(stack, 0);
+        }
+        while (stack.size > 0) {
+            stack.pop();
+            int top = stack.size;
+            int index = stack.keys[top];
+            int box = top * width();
+            if (!intersects(stack.bounds, box, lo, hi)) {
+                continue;
+            }
+
+            int offset = index * dimension;
+            boolean inside = true;
+            for (int axis = 0; axis < dimension && inside; axis++) {
+                inside = lo[axis] <= coords[offset + axis] && coords[offset + axis] <= hi[axis];
+            }
+            if (inside)
+                pointsInBox.enqueue(Arrays.copyOfRange(coords, offset, offset + dimension));
+
+            int axis = axes[index];
+            double split = coords[offset + axis];
+            double low = stack.bounds[box + axis];
+            double high = stack.bounds[box + dimension + axis];
+            if (2 * index + 1 < size)
+                pushChild(stack, 2 * index + 1, top, axis, low, split, 0);
+            if (2 * index + 2 < size)
+                pushChild(stack, 2 * index + 2, top, axis, split, high, 0);
+        }
+        return pointsInBox;
+    }
+
+    private boolean intersects(double[] bounds, int box, double[] lo, double[] hi) {
+        for (int axis = 0; axis < dimension; axis++) {
+            if (bounds[box + dimension + axis] < lo[axis] || bounds[box + axis] > hi[axis]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * A nearest neighbor in the set to point p.
+     *
+     * @param p point to check for its nearest neighbor.
+     * @return a copy of the nearest point.
+     * @throws IllegalArgumentException when p is null or has the wrong dimension,
+     *                                  or the set is empty.
+     */
+    public double[] nearest(double[] p) {
+        throwIfInvalid(p);
+        if (size == 0)
+            throw new IllegalArgumentException("No nearest point in as not points.");
+        return nearest(p, 1)[0];
+    }
+
+    /**
+     *
+     * The k points in the set nearest to point p. The candidates are kept in a
+     * max-heap of at most k points, and a subtree is searched only while its
+     * box is nearer than the k-th nearest point found so far. The distance to a
+     * child's box is summed over all the axes in the same order as the distance
+     * to a point rather than updated from its parent's along the one axis the
+     * parent splits on: subtracting the parent's term loses precision far from
+     * the origin, and a box found farther than a point inside it would prune
+     * the point. The sum takes O(dimension) time, as does the node's point.
+     *
+     * @param p point to find the nearest neighbors of.
+     * @param k number of neighbors.
+     * @return copies of the k nearest points, nearest first; all of the points
+     *         when the set has fewer than k.
+     * @throws IllegalArgumentException when p is null or has the wrong dimension,
+     *                                  or k is not positive.
+     */
+    public double[][] nearest(double[] p, int k) {
+        throwIfInvalid(p);
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of neighbors must be positive.");
+        }
+
+        NearestHeap<Void> heap = new NearestHeap<>(Math.min(k, size));
+        QueryStack<Void> stack = QueryStack.take(QUERY_STACKS);
+        stack.reset(width());
+        if (size > 0) {
+            pushRoot(stack, boxDistanceSquared(lower, upper, p));
+        }
+        while (stack.size > 0) {
+            stack.pop();
+            int top = stack.size;
+            int index = stack.keys[top];
+            int box = top * width();
+            double boxDistance = stack.bounds[box + 2 * dimension];
+            if (boxDistance >= heap.bound()) {
+                continue; // k nearer points were found after this node was pushed
+            }
+
+            int offset = index * dimension;
+            double distance = 0;
+            for (int axis = 0; axis < dimension; axis++) {
+                double d = coords[offset + axis] - p[axis];
+                distance += d * d;
+            }
+            heap.offer(null, index, distance);
+
+            // the children's boxes differ from the node's on its axis only
+            int axis = axes[index];
+            double split = coords[offset + axis];
+            double low = stack.bounds[box + axis];
+            double high = stack.bounds[box + dimension + axis];
+            double leftDistance = 0;
+            double rightDistance = 0;
+            for (int a = 0; a < dimension; a++) {
+                if (a == axis) {
+                    leftDistance += square(gap(low, split, p[a]));
+                    rightDistance += square(gap(split, high, p[a]));
+                } else {
+                    double term = square(gap(stack.bounds[box + a], stack.bounds[box + dimension + a], p[a]));
+                    leftDistance += term;
+                    rightDistance += term;
+                }
+            }
+
+            // push the far child first so the near child is searched first
+            double bound = heap.bound();
+            int left = 2 * index + 1;
+            int right = 2 * index + 2;
+            if (p[axis] < split) {
+                if (right < size && rightDistance < bound)
+                    pushChild(stack, right, top, axis, split, high, rightDistance);
+                if (left < size && leftDistance < bound)
+                    pushChild(stack, left, top, axis, low, split, leftDistance);
+            } else {
+                if (left < size && leftDistance < bound)
+                    pushChild(stack, left, top, axis, low, split, leftDistance);
+                if (right < size && rightDistance < bound)
+                    pushChild(stack, right, top, axis, split, high, rightDistance);
+            }
+        }
+
+        double[][] nearest = new double[heap.size()][];
+        for (int i = nearest.length - 1; i >= 0; i--) {
+            int index = heap.maxKey();
+            heap.removeMax();
+            nearest[i] = Arrays.copyOfRange(coords, index * dimension, (index + 1) * dimension);
+        }
+        return nearest;
+    }
+
+    // distance from x to the interval [low, high]
+    private static double gap(double low, double high, double x) {
+        if (x < low)
+            return low - x;
+        if (x > high)
+            return x - high;
+        return 0;
+    }
+
+    private static double square(double x) {
+        return x * x;
+    }
+
+    private double boxDistanceSquared(double[] low, double[] high, double[] p) {
+        double distance = 0;
+        for (int axis = 0; axis < dimension; axis++) {
+            distance += square(gap(low[axis], high[axis], p[axis]));
+        }
+        return distance;
+    }
+
+    private void throwIfInvalid(double[] p) {
+        if (p == null) {
+            throw new IllegalArgumentException("Point must not be null.");
+        }
+        if (p.length != dimension && size > 0) {
+            throw new IllegalArgumentException("Point must have " + dimension + " coordinates.");
+        }
+    }
+
+    // doubles of each query stack entry: the lower corner, the upper corner and
+    // the squared distance from the query point
+    private int width() {
+        return 2 * dimension + 1;
+    }
+
+    // pushes the root with the bounding box
+    private void pushRoot(QueryStack<Void> stack, double distance) {
+        int box = stack.push(null, 0) * width();
+        System.arraycopy(lower, 0, stack.bounds, box, dimension);
+        System.arraycopy(upper, 0, stack.bounds, box + dimension, dimension);
+        stack.bounds[box + 2 * dimension] = distance;
+    }
+
+    // pushes a child of the node whose box was at entry parent, with the box
+    // spanning [low, high] along the axis; the first child pushed overwrites
+    // the parent's entry, which only changes the box along the axis
+    private void pushChild(QueryStack<Void> stack, int node, int parent, int axis, double low, double high,
+            double distance) {
+        int box = stack.pushCopy(null, node, parent) * width();
+        stack.bounds[box + axis] = low;
+        stack.bounds[box + dimension + axis] = high;
+        stack.bounds[box + 2 * dimension] = distance;
+    }
+
+    // unit testing of the methods
+    public static void main(String[] args) {
+        VectorKdTree empty = new VectorKdTree(new double[0][]);
+        assert empty.isEmpty();
+        assert empty.nearest(new double[] { 1, 2, 3 }, 2).length == 0;
+        assert !empty.range(new double[] { 0 }, new double[] { 1 }).iterator().hasNext();
+        boolean thrown = false;
+        try {
+            empty.nearest(new double[] { 1, 2, 3 });
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown : "An empty set should have no nearest point.";
+
+        double[][] cube = new double[8][];
+        for (int i = 0; i < 8; i++) {
+            cube[i] = new double[] { i & 1, (i >> 1) & 1, (i >> 2) & 1 };
+        }
+        VectorKdTree tree = new VectorKdTree(cube);
+        assert tree.dimension() == 3;
+        assert tree.size() == 8;
+        assert tree.contains(new double[] { 1, 0, 1 });
+        assert !tree.contains(new double[] { 1, 0, 0.5 });
+        assert Arrays.equals(tree.nearest(new double[] { 0.9, 0.2, 0.7 }), new double[] { 1, 0, 1 });
+        assert count(tree.range(new double[] { 0, 0, 0.5 }, new double[] { 1, 1, 1 })) == 4;
+        assert tree.nearest(new double[] { 0, 0, 0 }, 20).length == 8;
+
+        thrown = false;
+        try {
+            tree.nearest(new double[] { 0, 0 });
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown : "A point of the wrong dimension should not be allowed.";
+
+        thrown = false;
+        try {
+            new VectorKdTree(new double[2][0]);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assert thrown : "Points without coordinates should not be allowed.";
+
+        // the same answers as sorting all the points, in 3 to 8 dimensions
+        for (int dimension = 3; dimension <= 8; dimension++) {
+            double[][] points = new double[5000][dimension];
+            for (double[] point : points) {
+                for (int axis = 0; axis < dimension; axis++) {
+                    // a few axes vary much more than the others
+                    point[axis] = axis < 2 ? StdRandom.uniformDouble() : StdRandom.uniformDouble(0, 0.1);
+                }
+            }
+            // repeated points are kept
+            points[1] = points[0].clone();
+
+            for (boolean maxSpread : new boolean[] { false, true }) {
+                tree = new VectorKdTree(points, maxSpread);
+                assert tree.size() == points.length;
+                assert tree.contains(points[4999]);
+
+                double[] distances = new double[points.length];
+                for (int i = 0; i < 50; i++) {
+                    double[] query = new double[dimension];
+                    double[] lo = new double[dimension];
+                    double[] hi = new double[dimension];
+                    for (int axis = 0; axis < dimension; axis++) {
+                        query[axis] = StdRandom.uniformDouble(-0.1, 1.1);
+                        lo[axis] = query[axis] - 0.3;
+                        hi[axis] = query[axis] + 0.3;
+                    }
+
+                    int inBox = 0;
+                    for (int j = 0; j < points.length; j++) {
+                        distances[j] = distanceSquared(points[j], query);
+                        boolean inside = true;
+                        for (int axis = 0; axis < dimension; axis++) {
+                            inside &= lo[axis] <= points[j][axis] && points[j][axis] <= hi[axis];
+                        }
+                        if (inside)
+                            inBox++;
+                    }
+                    Arrays.sort(distances);
+
+                    int k = 1 + StdRandom.uniformInt(20);
+                    double[][] nearest = tree.nearest(query, k);
+                    assert nearest.length == k;
+                    for (int j = 0; j < k; j++) {
+                        assert distanceSquared(nearest[j], query) == distances[j];
+                    }
+                    assert count(tree.range(lo, hi)) == inBox;
+                }
+            }
+        }
+
+        // a deep tree far from the origin, flat along one axis, with queries far
+        // off along that axis and beside the points along another: the squared
+        // distances to boxes are large but those to points differ by little
+        double[][] points = new double[100000][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new double[] { 1e8 + StdRandom.uniformDouble(), 1e8 + StdRandom.uniformDouble(), 1e8 };
+        }
+        for (boolean maxSpread : new boolean[] { false, true }) {
+            tree = new VectorKdTree(points, maxSpread);
+            for (int i = 0; i < 250; i++) {
+                double[] query = { 1e8 - StdRandom.uniformDouble(5, 30), 1e8 + StdRandom.uniformDouble(),
+                        1e8 + StdRandom.uniformDouble(5e6, 1e7) };
+                assert nearestAgree(tree, points, query, 1 + StdRandom.uniformInt(5));
+            }
+        }
+    }
+
+    // the k nearest points of the tree to query are the first k of the sorted
+    // distances from query to all the points
+    private static boolean nearestAgree(VectorKdTree tree, double[][] points, double[] query, int k) {
+        double[] distances = new double[points.length];
+        for (int j = 0; j < points.length; j++) {
+            distances[j] = distanceSquared(points[j], query);
+        }
+        Arrays.sort(distances);
+        double[][] nearest = tree.nearest(query, k);
+        for (int j = 0; j < k; j++) {
+            if (distanceSquared(nearest[j], query) != distances[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double distanceSquared(double[] a, double[] b) {
+        double distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            distance += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+        return distance;
+    }
+
+    private static int count(Iterable<double[]> points) {
+        int count = 0;
+        for (double[] p : points) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -1,10 +1,16 @@
+import java.util.Arrays;
+
 import edu.princeton.cs.algs4.Queue;
 import edu.princeton.cs.algs4.StdOut;
 import edu.princeton.cs.algs4.StdRandom;
 
 public class Board {
+    // boards up to 4 x 4 have at most 16 tiles of 4 bits, so they fit in a long
+    private static final int MAX_PACKED_SIZE = 4;
+
     private int size;
-    private int[][] board;
+    private int[][] board; // the tiles of boards larger than MAX_PACKED_SIZE, else null
+    private long packed; // the tile at row * size + col in the 4 bits from 4 * (row * size + col)
 
     private int zeroRow;
     private int zeroCol;
@@ -30,15 +36,26 @@ public class Board {
         createBoard(tiles);
     }
 
+    // a board whose fields the caller sets
+    private Board(int size) {
+        this.size = size;
+    }
+
     private void createBoard(int[][] tiles) {
         int goalTileValue = 1;
-        board = new int[size][size];
+        if (size > MAX_PACKED_SIZE) {
+            board = new int[size][size];
+        }
         for (int row = 0; row < size; row++) {
             for (int col = 0; col < size; col++) {
                 int currentValue = tiles[row][col];
 
                 // set board value ---------------------------
-                board[row][col] = currentValue;
+                if (board == null) {
+                    packed |= (long) currentValue << (4 * (row * size + col));
+                } else {
+                    board[row][col] = currentValue;
+                }
 
                 // handle zero value -------------------------
                 if (currentValue == 0) {
@@ -74,7 +91,7 @@ public class Board {
         for (int row = 0; row < size; row++) {
             output.append("\n");
             for (int col = 0; col < size; col++) {
-                output.append(board[row][col]);
+                output.append(tileAt(row, col));
                 output.append(" ");
             }
         }
@@ -82,6 +99,13 @@ public class Board {
         return output.toString();
     }
 
+    private int tileAt(int row, int col) {
+        if (board == null) {
+            return (int) (packed >>> (4 * (row * size + col))) & 0xF;
+        }
+        return board[row][col];
+    }
+
     /**
      * The n dimension of the n x n board.
      * 
@@ -126,7 +150,8 @@ public class Board {
      * 
      * @param that the other Board to check for equality.
      * @return false if that is null or a different size or if any tile value is
-     *         different, otherwise true.
+     *         different, otherwise true. Boards up to 4 x 4 are compared in
+     *         constant time.
      */
     public boolean equals(Object that) {
         if (that == null) {
@@ -143,6 +168,9 @@ public class Board {
         if (size != other.size) {
             return false;
         }
+        if (board == null) {
+            return packed == other.packed;
+        }
 
         for (int row = 0; row < size; row++) {
             for (int col = 0; col < size; col++) {
@@ -154,6 +182,22 @@ public class Board {
         return true;
     }
 
+    /**
+     * 
+     * Hash code consistent with equals.
+     * 
+     * @return a hash of the tiles, computed in constant time for boards up to 4 x
+     *         4.
+     */
+    public int hashCode() {
+        if (board == null) {
+            // multiply to spread the tiles over all the bits before folding the
+            // long to an int, which alone maps many boards to the same hash
+            return 31 * size + Long.hashCode(packed * 0x9E3779B97F4A7C15L);
+        }
+        return 31 * size + Arrays.deepHashCode(board);
+    }
+
     /**
      * 
      * All neighboring boards.
@@ -164,38 +208,61 @@ public class Board {
         Queue<Board> n = new Queue<Board>();
 
         if (zeroRow > 0) {
-            int[][] upBoard = copyBoard();
-            swap(upBoard, zeroRow, zeroCol, zeroRow - 1, zeroCol);
-            Board upNeighbor = new Board(upBoard);
-            n.enqueue(upNeighbor);
+            n.enqueue(slide(zeroRow - 1, zeroCol));
         }
         if (zeroRow < size - 1) {
-            int[][] downBoard = copyBoard();
-            swap(downBoard, zeroRow, zeroCol, zeroRow + 1, zeroCol);
-            Board downNeighbor = new Board(downBoard);
-            n.enqueue(downNeighbor);
+            n.enqueue(slide(zeroRow + 1, zeroCol));
         }
         if (zeroCol > 0) {
-            int[][] leftBoard = copyBoard();
-            swap(leftBoard, zeroRow, zeroCol, zeroRow, zeroCol - 1);
-            Board leftNeighbor = new Board(leftBoard);
-            n.enqueue(leftNeighbor);
+            n.enqueue(slide(zeroRow, zeroCol - 1));
         }
         if (zeroCol < size - 1) {
-            int[][] rightBoard = copyBoard();
-            swap(rightBoard, zeroRow, zeroCol, zeroRow, zeroCol + 1);
-            Board rightNeighbor = new Board(rightBoard);
-            n.enqueue(rightNeighbor);
+            n.enqueue(slide(zeroRow, zeroCol + 1));
         }
 
         return n;
     }
 
+    /**
+     * The neighbor in which the tile at row, col has slid into the blank. Only
+     * that tile moves, so its hamming and manhattan values are this board's
+     * adjusted for the tile rather than recomputed over every tile.
+     */
+    private Board slide(int row, int col) {
+        int from = row * size + col;
+        int to = zeroRow * size + zeroCol;
+        int tile = tileAt(row, col);
+        int goal = tile - 1;
+
+        Board neighbor = new Board(size);
+        if (board == null) {
+            // the blank's bits are zero, so xor moves the tile
+            neighbor.packed = packed ^ ((long) tile << (4 * from)) ^ ((long) tile << (4 * to));
+        } else {
+            neighbor.board = new int[size][size];
+            for (int r = 0; r < size; r++) {
+                System.arraycopy(board[r], 0, neighbor.board[r], 0, size);
+            }
+            neighbor.board[zeroRow][zeroCol] = tile;
+            neighbor.board[row][col] = 0;
+        }
+        neighbor.zeroRow = row;
+        neighbor.zeroCol = col;
+        neighbor.hammingValue = hammingValue + (goal == from ? 1 : 0) - (goal == to ? 1 : 0);
+        neighbor.manhattanValue = manhattanValue - distance(from, goal) + distance(to, goal);
+        return neighbor;
+    }
+
+    // manhattan distance between two positions on the board
+    private int distance(int position, int goal) {
+        return Math.abs(position / size - goal / size) + Math.abs(position % size - goal % size);
+    }
+
     private int[][] copyBoard() {
         int[][] copy = new int[size][size];
         for (int row = 0; row < size; row++) {
             for (int col = 0; col < size; col++) {
-                copy[row][col] = board[row][col];
+                copy[row][col] = tileAt(row, col);
             }
         }
         return copy;
@@ -427,6 +494,54 @@ public class Board {
         }
         assert count == 3;
 
+        // boards reached by different moves are equal and hash alike
+        int[][] tiles4 = {
+                { 1, 2, 3, 4 },
+                { 5, 6, 7, 8 },
+                { 9, 10, 11, 12 },
+                { 13, 14, 15, 0 }
+        };
+        Board solved4 = new Board(tiles4);
+        Board walked = solved4;
+        for (int i = 0; i < 1000; i++) {
+            Board previous = walked;
+            for (Board n : previous.neighbors()) {
+                if (StdRandom.uniformInt(2) == 0 || walked == previous) {
+                    walked = n;
+                }
+            }
+            Board rebuilt = new Board(walked.copyBoard());
+            assert walked.equals(rebuilt) && rebuilt.equals(walked);
+            assert walked.hashCode() == rebuilt.hashCode();
+            assert walked.hamming() == rebuilt.hamming() : "Slid hamming should match a rebuilt board.";
+            assert walked.manhattan() == rebuilt.manhattan() : "Slid manhattan should match a rebuilt board.";
+            assert walked.toString().equals(rebuilt.toString());
+        }
+        assert !solved4.equals(solved4.twin());
+        assert solved4.equals(new Board(tiles4)) && solved4.hashCode() == new Board(tiles4).hashCode();
+        assert !solvedBoard.equals(new Board(new int[][] { { 1, 2 }, { 3, 0 } }));
+
+        // the same for boards too large to pack
+        int[][] tiles5 = new int[5][5];
+        for (int i = 0; i < 24; i++) {
+            tiles5[i / 5][i % 5] = i + 1;
+        }
+        Board solved5 = new Board(tiles5);
+        walked = solved5;
+        for (int i = 0; i < 1000; i++) {
+            Board previous = walked;
+            for (Board n : previous.neighbors()) {
+                if (StdRandom.uniformInt(2) == 0 || walked == previous) {
+                    walked = n;
+                }
+            }
+            Board rebuilt = new Board(walked.copyBoard());
+            assert walked.equals(rebuilt) && walked.hashCode() == rebuilt.hashCode();
+            assert walked.hamming() == rebuilt.hamming() : "Slid hamming should match a rebuilt board.";
+            assert walked.manhattan() == rebuilt.manhattan() : "Slid manhattan should match a rebuilt board.";
+        }
+        assert solved5.isGoal() && !solved5.equals(solved5.twin());
+
         int maxHamming = 0;
         int maxManhattan = 0;
 
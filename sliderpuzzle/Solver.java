@@ -1,3 +1,6 @@
+import java.util.HashMap;
+import java.util.Map;
+
 import edu.princeton.cs.algs4.MinPQ;
 import edu.princeton.cs.algs4.Stack;
 import edu.princeton.cs.algs4.StdOut;
@@ -6,12 +9,33 @@ public class Solver {
     private boolean solvable;
     private SearchNode solution;
 
+    private final boolean closedSet;
+    private int expandedNodes;
+    private int createdNodes;
+    private int reachedBoards;
+
     // find a solution to the initial board (using the A* algorithm)
     public Solver(Board initial) {
+        this(initial, true);
+    }
+
+    /**
+     * 
+     * Solve the initial board, optionally without the closed set, in which case
+     * only moves straight back to the previous board are skipped and the same
+     * board may be queued and expanded many times. Without the closed set this
+     * is the search Solver ran before it had one, down to the twin's neighbors
+     * being queued at the twin's own move count. For SolverBenchmark.
+     * 
+     * @param initial   the board to solve.
+     * @param closedSet whether to remember the boards already reached.
+     */
+    Solver(Board initial, boolean closedSet) {
         if (initial == null) {
             throw new IllegalArgumentException("board must not be null.");
         }
 
+        this.closedSet = closedSet;
         solve(initial);
     }
 
@@ -19,18 +43,28 @@ public class Solver {
         MinPQ<SearchNode> searchNodes = new MinPQ<>();
         MinPQ<SearchNode> twinSearchNodes = new MinPQ<>();
 
+        // the fewest moves found to each board reached; a board is only queued
+        // again when reached in fewer moves
+        Map<Board, Integer> bestMoves = closedSet ? new HashMap<>() : null;
+        Map<Board, Integer> twinBestMoves = closedSet ? new HashMap<>() : null;
+
         SearchNode start = new SearchNode(board);
         SearchNode twinStart = new SearchNode(board.twin());
 
         searchNodes.insert(start);
         twinSearchNodes.insert(twinStart);
+        createdNodes += 2;
+        if (closedSet) {
+            bestMoves.put(start.getBoard(), 0);
+            twinBestMoves.put(twinStart.getBoard(), 0);
+        }
 
         SearchNode candidate;
         SearchNode twinCandidate;
 
         while (true) {
             // original board *************************************************************
-            candidate = searchNodes.delMin();
+            candidate = next(searchNodes, bestMoves);
 
             if (candidate.isSolved()) {
                 solvable = true;
@@ -38,17 +72,10 @@ public class Solver {
                 break;
             }
 
-            Iterable<Board> neighbors = candidate.getBoard().neighbors();
-            SearchNode parent = candidate.getParent();
-            for (Board neighbor : neighbors) {
-                if (parent != null && parent.getBoard() != null && parent.getBoard().equals(neighbor)) {
-                    continue; // don't backtrack
-                }
-                searchNodes.insert(new SearchNode(candidate, neighbor, candidate.getMoves() + 1));
-            }
+            expand(searchNodes, bestMoves, candidate, candidate.getMoves() + 1);
 
             // twin board *****************************************************************
-            twinCandidate = twinSearchNodes.delMin();
+            twinCandidate = next(twinSearchNodes, twinBestMoves);
 
             if (twinCandidate.isSolved()) {
                 solvable = false;
@@ -56,18 +83,79 @@ public class Solver {
                 break;
             }
 
-            Iterable<Board> twinNeighbors = twinCandidate.getBoard().neighbors();
-            SearchNode twinParent = twinCandidate.getParent();
-            for (Board neighbor : twinNeighbors) {
-                if (twinParent != null && twinParent.getBoard() != null && twinParent.getBoard().equals(neighbor)) {
+            // the search without the closed set keeps the old search's twin,
+            // which queued neighbors without counting the move to them
+            expand(twinSearchNodes, twinBestMoves, twinCandidate, twinCandidate.getMoves() + (closedSet ? 1 : 0));
+        }
+
+        if (closedSet) {
+            reachedBoards = bestMoves.size() + twinBestMoves.size();
+        }
+    }
+
+    // removes the next search node, skipping nodes whose board has since been
+    // reached in fewer moves
+    private SearchNode next(MinPQ<SearchNode> searchNodes, Map<Board, Integer> bestMoves) {
+        SearchNode candidate = searchNodes.delMin();
+        while (bestMoves != null && candidate.getMoves() > bestMoves.get(candidate.getBoard())) {
+            candidate = searchNodes.delMin();
+        }
+        return candidate;
+    }
+
+    // queues the neighbors of the candidate, each reached in the given moves
+    private void expand(MinPQ<SearchNode> searchNodes, Map<Board, Integer> bestMoves, SearchNode candidate,
+            int moves) {
+        expandedNodes++;
+        SearchNode parent = candidate.getParent();
+        for (Board neighbor : candidate.getBoard().neighbors()) {
+            if (bestMoves == null) {
+                if (parent != null && parent.getBoard().equals(neighbor)) {
                     continue; // don't backtrack
                 }
-                twinSearchNodes.insert(
-                        new SearchNode(twinCandidate, neighbor, twinCandidate.getMoves()));
+            } else {
+                Integer best = bestMoves.get(neighbor);
+                if (best != null && best <= moves) {
+                    continue; // already reached in as few moves
+                }
+                bestMoves.put(neighbor, moves);
             }
+            searchNodes.insert(new SearchNode(candidate, neighbor, moves));
+            createdNodes++;
         }
     }
 
+    /**
+     * 
+     * Number of search nodes expanded, for both the initial board and its twin.
+     * 
+     * @return number of search nodes whose neighbors were queued.
+     */
+    int expandedNodes() {
+        return expandedNodes;
+    }
+
+    /**
+     * 
+     * Number of search nodes created, for both the initial board and its twin.
+     * 
+     * @return number of search nodes queued.
+     */
+    int createdNodes() {
+        return createdNodes;
+    }
+
+    /**
+     * 
+     * Number of boards in the closed sets when the search ended, for both the
+     * initial board and its twin; 0 without the closed set.
+     * 
+     * @return number of entries the closed sets held.
+     */
+    int reachedBoards() {
+        return reachedBoards;
+    }
+
     /**
      * 
      * Is the initial board solvable.
@@ -150,6 +238,24 @@ public class Solver {
         solver = testSolver(new Board(tiles4));
         assert solver.isSolvable();
         assert solver.moves() == 1;
+
+        int[][] tiles5 = {
+                { 1, 2, 3 },
+                { 4, 5, 6 },
+                { 8, 7, 0 }
+        };
+        solver = testSolver(new Board(tiles5));
+        assert !solver.isSolvable();
+        assert solver.moves() == -1;
+        assert solver.solution() == null;
+
+        // the closed set finds the same number of moves with fewer expansions
+        Solver closed = new Solver(new Board(tiles2));
+        Solver open = new Solver(new Board(tiles2), false);
+        assert closed.moves() == open.moves();
+        assert closed.expandedNodes() < open.expandedNodes();
+        assert closed.createdNodes() < open.createdNodes();
+        assert closed.reachedBoards() > 0 && open.reachedBoards() == 0;
     }
 
     private static Solver testSolver(Board board) {
@@ -267,7 +373,8 @@ public class Solver {
                 return 1;
             }
 
-            return 0;
+            // break ties toward the board nearer the goal
+            return Integer.compare(board.manhattan(), other.board.manhattan());
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import edu.princeton.cs.algs4.StdOut;
+import edu.princeton.cs.algs4.StdRandom;
+import edu.princeton.cs.algs4.Stopwatch;
+
+/**
+ * Compares Solver with and without its closed set on 3 x 3 and 4 x 4 puzzles
+ * scrambled by random walks from the goal, reporting the average moves, search
+ * nodes expanded and created, boards held in the closed sets, time, bytes
+ * allocated and peak heap per puzzle. Every search node created stays queued
+ * until the solve ends, but the closed sets also keep a map entry per board
+ * reached, so only the peak heap compares the memory the two searches need;
+ * it is the most the heap pools held during the solve beyond what was live
+ * before it, garbage included. The search without the closed set is skipped
+ * once it creates more than OPEN_MAX_NODES nodes on a shorter walk of the
+ * same dimension, as it would run out of memory on longer ones.
+ *
+ * Usage: java SolverBenchmark [puzzlesPerRow]
+ */
+public class SolverBenchmark {
+    private static final int OPEN_MAX_NODES = 2000000;
+    private static final int[][] SCRAMBLES = {
+            { 3, 20 }, { 3, 40 }, { 3, 80 }, { 3, 160 },
+            { 4, 20 }, { 4, 30 }, { 4, 40 }, { 4, 50 }
+    };
+
+    private SolverBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int puzzles = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        StdRandom.setSeed(20);
+
+        StdOut.printf("%3s %5s %-7s %7s %12s %12s %12s %10s %10s %10s%n",
+                "n", "walk", "search", "moves", "expanded", "created", "reached", "time s", "alloc MB", "peak MB");
+        boolean openTooLarge = false;
+        for (int i = 0; i < SCRAMBLES.length; i++) {
+            int[] scramble = SCRAMBLES[i];
+            int n = scramble[0];
+            if (i > 0 && SCRAMBLES[i - 1][0] != n) {
+                openTooLarge = false;
+            }
+            Board[] boards = new Board[puzzles];
+            for (int j = 0; j < puzzles; j++) {
+                boards[j] = scramble(n, scramble[1]);
+            }
+
+            for (boolean closedSet : new boolean[] { true, false }) {
+                if (!closedSet && openTooLarge) {
+                    StdOut.printf("%3d %5d %-7s %7s%n", n, scramble[1], "open", "skipped");
+                    continue;
+                }
+
+                long moves = 0;
+                long expanded = 0;
+                long created = 0;
+                long reached = 0;
+                double time = 0;
+                long allocated = 0;
+                long peak = 0;
+                for (Board board : boards) {
+                    long live = startMeasuring();
+                    long allocatedBefore = allocatedBytes();
+                    Stopwatch stopwatch = new Stopwatch();
+                    Solver solver = new Solver(board, closedSet);
+                    time += stopwatch.elapsedTime();
+                    allocated += allocatedBytes() - allocatedBefore;
+                    peak += peakHeapBytes() - live;
+
+                    moves += solver.moves();
+                    expanded += solver.expandedNodes();
+                    created += solver.createdNodes();
+                    reached += solver.reachedBoards();
+                }
+
+                StdOut.printf("%3d %5d %-7s %7.1f %12.0f %12.0f %12.0f %10.3f %10.1f %10.1f%n", n, scramble[1],
+                        closedSet ? "closed" : "open", (double) moves / puzzles, (double) expanded / puzzles,
+                        (double) created / puzzles, (double) reached / puzzles, time / puzzles,
+                        toMegabytes(allocated) / puzzles, toMegabytes(peak) / puzzles);
+                if (!closedSet && created / puzzles > OPEN_MAX_NODES) {
+                    openTooLarge = true;
+                }
+            }
+        }
+    }
+
+    // collects the garbage and resets the heap pools' peaks, returning the
+    // bytes still in use
+    private static long startMeasuring() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    // the most the heap pools held since startMeasuring()
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // bytes allocated so far by this thread, which runs the solves; -1 when the
+    // JVM does not track allocation
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static double toMegabytes(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    // a solvable board made by sliding random tiles into the blank of the goal
+    private static Board scramble(int n, int steps) {
+        int[][] tiles = new int[n][n];
+        for (int i = 0; i < n * n - 1; i++) {
+            tiles[i / n][i % n] = i + 1;
+        }
+        int zeroRow = n - 1;
+        int zeroCol = n - 1;
+        int[] rowSteps = { -1, 1, 0, 0 };
+        int[] colSteps = { 0, 0, -1, 1 };
+        int previous = -1;
+        for (int i = 0; i < steps; i++) {
+            int direction = StdRandom.uniformInt(4);
+            int row = zeroRow + rowSteps[direction];
+            int col = zeroCol + colSteps[direction];
+            // stay on the board and don't undo the last move
+            if (row < 0 || row >= n || col < 0 || col >= n || (direction ^ 1) == previous) {
+                i--;
+                continue;
+            }
+            tiles[zeroRow][zeroCol] = tiles[row][col];
+            tiles[row][col] = 0;
+            zeroRow = row;
+            zeroCol = col;
+            previous = direction;
+        }
+        return new Board(tiles);
+    }
+}